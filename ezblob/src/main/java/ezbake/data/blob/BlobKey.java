@@ -0,0 +1,60 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.blob;
+
+import java.util.Objects;
+
+/**
+ * Identifies the blobs stored under a key in a bucket, for fetching many of them in one call.
+ */
+public final class BlobKey {
+    private final String bucket;
+    private final String key;
+
+    public BlobKey(String bucket, String key) {
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlobKey)) {
+            return false;
+        }
+
+        final BlobKey other = (BlobKey) o;
+        return Objects.equals(bucket, other.bucket) && Objects.equals(key, other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bucket, key);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("bucket: %s key: %s", bucket, key);
+    }
+}
@@ -14,9 +14,6 @@
 
 package ezbake.data.blob;
 
-import static ezbake.data.common.TokenUtils.validateSecurityToken;
-import static ezbake.data.common.classification.ClassificationUtils.extractUserAuths;
-import static ezbake.data.common.classification.ClassificationUtils.getAuthsFromString;
 import static ezbake.security.serialize.VisibilitySerialization.deserializeVisibilityWrappedBytes;
 import static ezbake.security.serialize.VisibilitySerialization.deserializeVisibilityWrappedValue;
 import static ezbake.security.serialize.VisibilitySerialization.serializeVisibilityWithData;
@@ -25,10 +22,13 @@ import static ezbake.security.serialize.VisibilitySerialization.serializeVisibil
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
@@ -37,10 +37,12 @@ import java.util.concurrent.TimeUnit;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchDeleter;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.ScannerBase;
@@ -50,6 +52,8 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedKeyIterator;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.commons.lang.StringUtils;
@@ -68,6 +72,7 @@ import com.google.common.collect.Lists;
 import ezbake.base.thrift.EzSecurityToken;
 import ezbake.base.thrift.Permission;
 import ezbake.base.thrift.Visibility;
+import ezbake.common.properties.EzProperties;
 import ezbake.data.base.EzbakeBaseDataService;
 import ezbake.data.base.blob.thrift.Blob;
 import ezbake.data.base.blob.thrift.BlobException;
@@ -75,7 +80,6 @@ import ezbake.data.base.blob.thrift.EzBlob;
 import ezbake.data.base.thrift.PurgeItems;
 import ezbake.data.base.thrift.PurgeOptions;
 import ezbake.data.base.thrift.PurgeResult;
-import ezbake.data.iterator.EzBakeVisibilityFilter;
 import ezbake.security.permissions.PermissionUtils;
 import ezbake.security.serialize.thrift.VisibilityWrapper;
 import ezbake.util.AuditEvent;
@@ -89,6 +93,10 @@ import ezbakehelpers.ezconfigurationhelpers.application.EzBakeApplicationConfigu
  * <p/>
  * RowId Column Family Column Qualifier Security Value bucket key "" user_security blob
  * <p/>
+ * A second table indexes the buckets so they can be listed and checked without reading any blobs:
+ * <p/>
+ * RowId Column Family Column Qualifier Security Value bucket "" "" bucket_security bucket_visibility
+ * <p/>
  * This class then has some basic CRUD operations to work with the blob store.
  */
 public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface {
@@ -101,6 +109,9 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     // For EzMetrics
     private static final String BLOB_GET_TIMER_NAME = MetricRegistry.name(EzBlobHandler.class, "blob", "timer", "get");
 
+    private static final String BLOB_GET_BATCH_TIMER_NAME =
+            MetricRegistry.name(EzBlobHandler.class, "blob", "timer", "getBatch");
+
     private static final String BLOB_PUT_TIMER_NAME = MetricRegistry.name(EzBlobHandler.class, "blob", "timer", "put");
 
     private static final String BLOB_PUT_METER_NAME = MetricRegistry.name(EzBlobHandler.class, "blob", "meter", "put");
@@ -117,15 +128,37 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
 
     // The maximum number of threads to use for writing data to the tablet servers
     private static final int MAX_WRITE_THREADS = 4;
+    // Validated tokens and their prepared scan settings are reused for this long
+    private static final String TOKEN_CACHE_EXPIRE_KEY = "ezblob.token.cache.expire.ms";
+    private static final long DEFAULT_TOKEN_CACHE_EXPIRE_MILLIS = 60000;
+    private static final int TOKEN_CACHE_SIZE = 1000;
+
+    private static final String BATCH_SCANNER_THREADS_KEY = "ezblob.batch.scanner.threads";
+    private static final int DEFAULT_BATCH_SCANNER_THREADS = 4;
+
+    // Limits on a single getBlobsBatch call, since the results are returned all at once
+    private static final String BATCH_MAX_KEYS_KEY = "ezblob.batch.max.keys";
+    private static final int DEFAULT_BATCH_MAX_KEYS = 1000;
+    private static final String BATCH_MAX_BYTES_KEY = "ezblob.batch.max.bytes";
+    private static final long DEFAULT_BATCH_MAX_BYTES = 256L * 1000 * 1000;
+
     private static final BatchWriterConfig BATCH_WRITER_CONFIG =
             new BatchWriterConfig().setMaxLatency(MAX_LATENCY, TimeUnit.MILLISECONDS).setMaxMemory(MAX_MEMORY)
                     .setMaxWriteThreads(MAX_WRITE_THREADS);
     private static final Logger logger = LoggerFactory.getLogger(EzBlobHandler.class);
-    private final IteratorSetting iteratorSetting =
-            new IteratorSetting(42, "ezBlobIterator", EzBakeVisibilityFilter.class);
+    // Drops values after the visibility filter has run, for scans that only need keys
+    private static final IteratorSetting KEY_ONLY_ITERATOR_SETTING =
+            new IteratorSetting(100, "ezBlobKeyOnly", SortedKeyIterator.class);
+    // Row in the purge table recording that the bucket index holds every bucket; purge job rows are numeric
+    private static final Text BUCKET_INDEX_COMPLETE_ROW = new Text("bucketIndexComplete");
     private Connector connector;
     private String tableName;
+    private String bucketIndexTableName;
     private String purgeTableName;
+    private TokenCache tokenCache;
+    private int batchScannerThreads;
+    private int batchMaxKeys;
+    private long batchMaxBytes;
 
     @Override
     public TProcessor getThriftProcessor() {
@@ -159,7 +192,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
             return;
         }
 
-        putBlob(entry, security, true);
+        writeBlob(entry, security);
     }
 
     /**
@@ -179,9 +212,9 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         checkBucketExists(bucket, security);
 
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucket));
             scanner.fetchColumnFamily(new Text(key));
@@ -196,8 +229,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
                     // Since nothing was found return an empty ByteBuffer
                     scanResult.add(EMPTY_BYTE_BUFFER);
                 } else {
-                    final VisibilityWrapper deserialized = deserializeVisibilityWrappedValue(entry.getValue());
-                    scanResult.add(ByteBuffer.wrap(deserialized.getValue()));
+                    scanResult.add(getPayload(deserializeVisibilityWrappedValue(entry.getValue())));
                 }
             }
 
@@ -213,6 +245,83 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         }
     }
 
+    /**
+     * Gets the blobs stored under many bucket and key pairs in one call. Each distinct bucket is checked once, and all
+     * keys are read in parallel by a single BatchScanner instead of one scan per key.
+     *
+     * @param keys bucket and key pairs to look up
+     * @param security of the the user who is doing the look up
+     * @return the blobs visible to the user for each requested key, with an empty set for keys that have none
+     * @throws TException in case of an unexpected error
+     * @throws BlobException in case of an Accumulo Exception, a missing bucket, or a request over the batch limits
+     */
+    public Map<BlobKey, Set<ByteBuffer>> getBlobsBatch(List<BlobKey> keys, EzSecurityToken security)
+            throws TException {
+        final Timer.Context context =
+                getMetricRegistry().getTimers().get(EzBlobHandler.BLOB_GET_BATCH_TIMER_NAME).time();
+
+        BatchScanner scanner = null;
+        try {
+            validateToken(security);
+
+            if (keys.size() > batchMaxKeys) {
+                throw new BlobException(
+                        String.format(
+                                "Too many keys requested: %d, at most %d are allowed", keys.size(), batchMaxKeys));
+            }
+
+            final Map<BlobKey, Set<ByteBuffer>> results = new HashMap<>();
+            final Set<String> buckets = new HashSet<>();
+            final List<Range> ranges = new ArrayList<>();
+            for (final BlobKey key : keys) {
+                if (!results.containsKey(key)) {
+                    results.put(key, new HashSet<ByteBuffer>());
+                    buckets.add(key.getBucket());
+                    ranges.add(Range.exact(key.getBucket(), key.getKey()));
+                }
+            }
+
+            if (ranges.isEmpty()) {
+                return results;
+            }
+
+            checkBucketsExist(buckets, security);
+
+            scanner = connector.createBatchScanner(
+                    tableName, getScanAuthorizations(security), batchScannerThreads);
+            scanner.setRanges(ranges);
+            addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.READ));
+
+            long totalBytes = 0;
+            for (final Entry<Key, Value> entry : scanner) {
+                totalBytes += entry.getValue().getSize();
+                if (totalBytes > batchMaxBytes) {
+                    throw new BlobException(
+                            String.format(
+                                    "Requested blobs are larger than %d bytes, request fewer keys at a time",
+                                    batchMaxBytes));
+                }
+
+                final BlobKey key = new BlobKey(
+                        entry.getKey().getRow().toString(), entry.getKey().getColumnFamily().toString());
+                results.get(key).add(getPayload(deserializeVisibilityWrappedValue(entry.getValue())));
+            }
+
+            return results;
+        } catch (final TableNotFoundException e) {
+            logger.error("No table named '" + tableName + "' found", e);
+            throw new BlobException(e.getMessage());
+        } catch (final IOException e) {
+            logger.error("Could not read visibility", e);
+            throw new BlobException(e.getMessage());
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            context.stop();
+        }
+    }
+
     /**
      * Removes a blob from the datastore
      *
@@ -225,7 +334,44 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
      */
     @Override
     public int removeBlob(String bucket, String key, EzSecurityToken security) throws TException {
-        return removeBlob(bucket, key, security, false);
+        try {
+            validateToken(security);
+
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
+
+            scanner.setRange(new Range(bucket));
+            scanner.fetchColumnFamily(new Text(key));
+            addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.WRITE));
+
+            final BatchWriter deleteWriter = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
+
+            int affectedRows = 0;
+            for (final Entry<Key, Value> entry : scanner) {
+                final ColumnVisibility viz = entry.getKey().getColumnVisibilityParsed();
+                final Text qual = entry.getKey().getColumnQualifier();
+                final Mutation deleteMutation = new Mutation(bucket);
+                logger.debug("Deleting.... Key: {} qual: {} vis: {}", key, qual, viz);
+                deleteMutation.putDelete(new Text(key), qual, viz);
+                deleteWriter.addMutation(deleteMutation);
+
+                affectedRows++;
+            }
+
+            deleteWriter.flush();
+            deleteWriter.close();
+
+            // audit log
+            final String action = String.format("bucket: %s   key: %s", bucket, key);
+            auditLog(security, AuditEventType.FileObjectDelete, "removeBlob", action);
+
+            return affectedRows;
+        } catch (final MutationsRejectedException e) {
+            logger.error("Accumulo Exception", e);
+            throw new BlobException(e.getMessage());
+        } catch (final TableNotFoundException e) {
+            logger.error("No table named " + tableName + " found", e);
+            throw new BlobException(e.getMessage());
+        }
     }
 
     /**
@@ -244,27 +390,41 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
             String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey,
             EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(sourceBucketName));
             scanner.fetchColumnFamily(new Text(sourceKey));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.READ, Permission.WRITE));
 
+            // Values are copied as stored, visibility wrapper included
+            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
+            final ProgressLogger progress = new ProgressLogger("copyBlob " + sourceBucketName + "/" + sourceKey);
+            String bucketVis = null;
             for (final Entry<Key, Value> entry : scanner) {
+                // The destination is the same for every copied entry, so check it once
+                if (bucketVis == null) {
+                    checkBucketExists(destinationBucketName, security);
+                    bucketVis = getBucketVisibility(destinationBucketName, security).getFormalVisibility();
+                }
+
                 final Visibility viz = deserializeVisibilityWrappedValue(entry.getValue()).getVisibilityMarkings();
-                final Blob blob =
-                        new Blob(destinationBucketName, destinationKey, ByteBuffer.wrap(entry.getValue().get()), viz);
-                putBlob(blob, security, false);
+                writer.addMutation(
+                        createBlobMutation(destinationBucketName, destinationKey, viz, bucketVis, entry.getValue()));
+                progress.increment();
             }
+            writer.close();
 
             // audit log
             final String description = String.format(
-                    "source bucket: %s  sourceKey: %s   destination bucket: %s  destination key: %s", sourceBucketName,
-                    sourceKey, destinationBucketName, destinationKey);
+                    "source bucket: %s  sourceKey: %s   destination bucket: %s  destination key: %s  entries: %d",
+                    sourceBucketName, sourceKey, destinationBucketName, destinationKey, progress.getCount());
 
             auditLog(security, AuditEventType.FileObjectAccess, "copyBlob", description);
+        } catch (final MutationsRejectedException e) {
+            logger.error("Accumulo Exception", e);
+            throw new BlobException(e.getMessage());
         } catch (final TableNotFoundException e) {
             logger.error("No table named " + tableName + " found", e);
             throw new BlobException(e.getMessage());
@@ -287,7 +447,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public String createBucket(String bucketName, Visibility visibility, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
             if (!hasPermissions(security.getAuthorizations(), visibility, EnumSet.of(Permission.WRITE))) {
                 throw new BlobException("User does not have permission for WRITE on Bucket");
@@ -300,9 +460,12 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
                     new ColumnVisibility(visibility.getFormalVisibility()),
                     serializeVisibilityWithDataToValue(visibility, new byte[0]));
 
-            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
-            writer.addMutation(bucketMutation);
-            writer.flush();
+            final MultiTableBatchWriter writer = connector.createMultiTableBatchWriter(BATCH_WRITER_CONFIG);
+            writer.getBatchWriter(tableName).addMutation(bucketMutation);
+            writer.getBatchWriter(bucketIndexTableName).addMutation(
+                    createBucketIndexMutation(
+                            bucketName, new ColumnVisibility(visibility.getFormalVisibility()),
+                            serializeVisibilityWithDataToValue(visibility, new byte[0])));
             writer.close();
 
             // audit log
@@ -313,7 +476,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         } catch (final TableNotFoundException e) {
             logger.error("No table named " + tableName + " found", e);
             throw new BlobException(e.getMessage());
-        } catch (final MutationsRejectedException e) {
+        } catch (final AccumuloException | AccumuloSecurityException e) {
             logger.error("Accumulo Exception", e);
             throw new BlobException(e.getMessage());
         } catch (final IOException e) {
@@ -333,10 +496,10 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public void deleteBucket(String bucketName, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
             final BatchDeleter deleter = connector.createBatchDeleter(
-                    tableName, getAuthsFromString(extractUserAuths(security)), 1, BATCH_WRITER_CONFIG);
+                    tableName, getScanAuthorizations(security), 1, BATCH_WRITER_CONFIG);
 
             addEzBakeVisibilityFilter(deleter, security, EnumSet.of(Permission.WRITE));
 
@@ -347,6 +510,13 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
             deleter.delete();
             deleter.close();
 
+            final BatchDeleter indexDeleter = connector.createBatchDeleter(
+                    bucketIndexTableName, getScanAuthorizations(security), 1, BATCH_WRITER_CONFIG);
+            addEzBakeVisibilityFilter(indexDeleter, security, EnumSet.of(Permission.WRITE));
+            indexDeleter.setRanges(b);
+            indexDeleter.delete();
+            indexDeleter.close();
+
             // audit log
             final String description = String.format("bucket: %s", bucketName);
             auditLog(security, AuditEventType.FileObjectDelete, "deleteBucket", description);
@@ -368,26 +538,20 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
      * @throws TException in case of an unexpected error
      * @throws BlobException in case of an Accumulo Exception
      */
-    @SuppressWarnings("unused")
     @Override
     public boolean doesBucketExist(String bucketName, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner =
+                    connector.createScanner(bucketIndexTableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
-            scanner.fetchColumnFamily(new Text(""));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.DISCOVER));
 
-            int affectedRows = 0;
-            for (final Entry<Key, Value> entry : scanner) {
-                affectedRows++;
-            }
-
-            return affectedRows > 0;
+            return hasVisibleKey(scanner);
         } catch (final TableNotFoundException e) {
-            logger.error("No table named " + tableName + " found", e);
+            logger.error("No table named " + bucketIndexTableName + " found", e);
             throw new BlobException(e.getMessage());
         }
     }
@@ -402,32 +566,18 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
      * @throws TException in case of an unexpected error
      * @throws BlobException in case of an Accumulo Exception
      */
-    @SuppressWarnings("unused")
     @Override
     public boolean doesBlobExist(String bucketName, String key, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             scanner.fetchColumnFamily(new Text(key));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.DISCOVER));
 
-            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
-
-            int affectedRows = 0;
-            for (final Entry<Key, Value> entry : scanner) {
-                affectedRows++;
-            }
-
-            writer.flush();
-            writer.close();
-
-            return affectedRows > 0;
-        } catch (final MutationsRejectedException e) {
-            logger.error("Accumulo Exception", e);
-            throw new BlobException(e.getMessage());
+            return hasVisibleKey(scanner);
         } catch (final TableNotFoundException e) {
             logger.error("No table named " + tableName + " found", e);
             throw new BlobException(e.getMessage());
@@ -448,30 +598,22 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     public List<Visibility> getBlobVisibility(String bucketName, String key, EzSecurityToken security)
             throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
             checkBucketExists(bucketName, security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             scanner.fetchColumnFamily(new Text(key));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.MANAGE_VISIBILITY));
 
-            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
-
             final List<Visibility> visibilities = new ArrayList<>();
             for (final Entry<Key, Value> entry : scanner) {
                 visibilities.add(deserializeVisibilityWrappedValue(entry.getValue()).getVisibilityMarkings());
             }
 
-            writer.flush();
-            writer.close();
-
             return visibilities;
-        } catch (final MutationsRejectedException e) {
-            logger.error("Accumulo Exception", e);
-            throw new BlobException(e.getMessage());
         } catch (final TableNotFoundException e) {
             logger.error("No table named " + tableName + " found", e);
             throw new BlobException(e.getMessage());
@@ -493,37 +635,24 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public Visibility getBucketVisibility(String bucketName, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
             checkBucketExists(bucketName, security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner =
+                    connector.createScanner(bucketIndexTableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.MANAGE_VISIBILITY));
 
-            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
-
-            Visibility visibility = null;
-            for (final Entry<Key, Value> entry : scanner) {
-                if (visibility == null) {
-                    visibility = deserializeVisibilityWrappedValue(entry.getValue()).getVisibilityMarkings();
-                }
-            }
-
-            writer.flush();
-            writer.close();
-
-            if (visibility == null) {
+            final Iterator<Entry<Key, Value>> scanIterator = scanner.iterator();
+            if (!scanIterator.hasNext()) {
                 throw new BlobException("Could not find visibility");
             }
 
-            return visibility;
-        } catch (final MutationsRejectedException e) {
-            logger.error("Accumulo Exception", e);
-            throw new BlobException(e.getMessage());
+            return deserializeVisibilityWrappedValue(scanIterator.next().getValue()).getVisibilityMarkings();
         } catch (final TableNotFoundException e) {
-            logger.error("No table named " + tableName + " found", e);
+            logger.error("No table named " + bucketIndexTableName + " found", e);
             throw new BlobException(e.getMessage());
         } catch (final IOException e) {
             logger.error("Could not read visibility", e);
@@ -542,12 +671,14 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public Set<String> listBuckets(EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner =
+                    connector.createScanner(bucketIndexTableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range());
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.READ));
+            scanner.addScanIterator(KEY_ONLY_ITERATOR_SETTING);
 
             final Set<String> list = new HashSet<>();
             for (final Entry<Key, Value> entry : scanner) {
@@ -556,7 +687,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
 
             return list;
         } catch (final TableNotFoundException e) {
-            logger.error("No table named " + tableName + " found", e);
+            logger.error("No table named " + bucketIndexTableName + " found", e);
             throw new BlobException(e.getMessage());
         }
     }
@@ -573,15 +704,13 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public List<Blob> listBlobs(String bucketName, EzSecurityToken security) throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.READ));
 
-            final BatchWriter deleteWriter = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
-
             final List<Blob> list = new ArrayList<>();
             for (final Entry<Key, Value> entry : scanner) {
                 final JSONObject json = new JSONObject(entry.getKey().getColumnQualifier().toString());
@@ -589,17 +718,12 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
                     final VisibilityWrapper visibilityWrapper = deserializeVisibilityWrappedValue(entry.getValue());
                     final Blob blob = new Blob(
                             bucketName, entry.getKey().getColumnFamily().toString(),
-                            ByteBuffer.wrap(visibilityWrapper.getValue()), visibilityWrapper.getVisibilityMarkings());
+                            getPayload(visibilityWrapper), visibilityWrapper.getVisibilityMarkings());
                     list.add(blob);
                 }
             }
-            deleteWriter.flush();
-            deleteWriter.close();
 
             return list;
-        } catch (final MutationsRejectedException e) {
-            logger.error("Accumulo Exception", e);
-            throw new BlobException(e.getMessage());
         } catch (final TableNotFoundException e) {
             logger.error("No table named " + tableName + " found", e);
             throw new BlobException(e.getMessage());
@@ -624,16 +748,20 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     @Override
     public void setBucketVisibility(String bucketName, Visibility visibility, EzSecurityToken security)
             throws TException {
+        MultiTableBatchWriter multiWriter = null;
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.MANAGE_VISIBILITY));
 
             final String bucketViz = visibility.getFormalVisibility();
-            final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
+            multiWriter = connector.createMultiTableBatchWriter(BATCH_WRITER_CONFIG);
+            final BatchWriter writer = multiWriter.getBatchWriter(tableName);
+            final BatchWriter indexWriter = multiWriter.getBatchWriter(bucketIndexTableName);
+            final ProgressLogger progress = new ProgressLogger("setBucketVisibility " + bucketName);
             for (final Entry<Key, Value> entry : scanner) {
                 final JSONObject json = new JSONObject(entry.getKey().getColumnQualifier().toString());
                 String blobViz;
@@ -648,25 +776,38 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
                 final Value newValue = serializeVisibilityWithDataToValue(
                         visibility, deserializeVisibilityWrappedBytes(entry.getValue().get()).getValue());
 
+                if (!json.has("blobVisibility")) {
+                    final Mutation indexMutation = createBucketIndexMutation(bucketName, newViz, newValue);
+                    // A delete at the same timestamp would hide the new entry, so only delete a different visibility
+                    if (!entry.getKey().getColumnVisibilityParsed().equals(newViz)) {
+                        indexMutation.putDelete(EMPTY_TEXT, EMPTY_TEXT, entry.getKey().getColumnVisibilityParsed());
+                    }
+                    indexWriter.addMutation(indexMutation);
+                }
+
                 final JSONObject newJson = json.put("bucketVisibility", visibility.getFormalVisibility());
+                final Text newQualifier = new Text(newJson.toString());
                 final Mutation blobMutation = new Mutation(bucketName);
 
-                blobMutation.put(
-                        new Text(entry.getKey().getColumnFamily()), new Text(newJson.toString()), newViz, newValue);
+                blobMutation.put(new Text(entry.getKey().getColumnFamily()), newQualifier, newViz, newValue);
 
-                blobMutation.putDelete(
-                        entry.getKey().getColumnFamily(), entry.getKey().getColumnQualifier(),
-                        entry.getKey().getColumnVisibilityParsed());
+                // Same as the index, an unchanged key is overwritten rather than deleted
+                if (!newQualifier.equals(entry.getKey().getColumnQualifier())
+                        || !entry.getKey().getColumnVisibilityParsed().equals(newViz)) {
+                    blobMutation.putDelete(
+                            entry.getKey().getColumnFamily(), entry.getKey().getColumnQualifier(),
+                            entry.getKey().getColumnVisibilityParsed());
+                }
 
                 writer.addMutation(blobMutation);
+                progress.increment();
             }
-            writer.flush();
-            writer.close();
+            multiWriter.close();
 
             // audit log
-            final String description = String.format("bucket: %s", bucketName);
+            final String description = String.format("bucket: %s  entries: %d", bucketName, progress.getCount());
             auditLog(security, AuditEventType.FileObjectPermissionModifications, "setBucketVisibility", description);
-        } catch (final MutationsRejectedException e) {
+        } catch (final AccumuloException | AccumuloSecurityException e) {
             logger.error("Accumulo Exception", e);
             throw new BlobException(e.getMessage());
         } catch (final TableNotFoundException e) {
@@ -678,6 +819,8 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         } catch (final IOException e) {
             logger.error("Could not read/write visibility", e);
             throw new BlobException(e.getMessage());
+        } finally {
+            closeQuietly(multiWriter);
         }
     }
 
@@ -695,9 +838,9 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     public void setBlobVisibility(String bucketName, String key, Visibility visibility, EzSecurityToken security)
             throws TException {
         try {
-            validateSecurityToken(security, this.getConfigurationProperties());
+            validateToken(security);
 
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
+            final Scanner scanner = connector.createScanner(tableName, getScanAuthorizations(security));
 
             scanner.setRange(new Range(bucketName));
             scanner.fetchColumnFamily(new Text(key));
@@ -750,11 +893,16 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     /**
      * Purges the provenance ids passed in via object with the PurgeOptions.  This method should be called with the
      * application's security token.  The formal visibilities in the application's security token should be a superset
-     * of all of the formal visibilities of tokens used to persist data via EzBlob.  On each call, the current row of
-     * the purgeJobId is persisted to the purge table, and the purge resumes from that row.
+     * of all of the formal visibilities of tokens used to persist data via EzBlob.  Provenance IDs are matched by a
+     * {@link PurgeIterator} on the tablet servers, or in the service if the tablet servers can't load it, and all
+     * deletes of a call go through one writer.
+     * <p/>
+     * With no batch size the whole table is purged in one call, scanning all tablets in parallel.  With a batch size,
+     * each call handles that many entries in order, and the position of the purgeJobId is checkpointed to the purge
+     * table so the next call resumes from it.
      *
      * @param items PurgeItems including which purgeIds to purge.
-     * @param options PurgeOptions including batchSize, not used.
+     * @param options PurgeOptions including batchSize, the number of entries to handle per call or 0 for all.
      * @param security Application's security token.
      * @throws TException in case of an unexpected error.
      */
@@ -762,32 +910,63 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     public PurgeResult purge(PurgeItems items, PurgeOptions options, EzSecurityToken security) throws TException {
         final PurgeResult purgeResult =
                 new PurgeResult(true).setPurged(new HashSet<Long>()).setUnpurged(new HashSet<Long>());
-        final Set<Long> toPurge = new HashSet<>(items.getItems());
         final int backendBatchSize = options.getBatchSize();
-        final Scanner scanner;
-        final Iterator<Entry<Key, Value>> iterator;
         final long purgeJobId = items.getPurgeId();
-        final Authorizations auths = getAuthsFromString(extractUserAuths(security));
-
-        int backendBatchCounter = 0;
-
-        validateSecurityToken(security, this.getConfigurationProperties());
+        final Authorizations auths = getScanAuthorizations(security);
         auditLog(
                 security, AuditEventType.FileObjectDelete, "purge",
                 String.format("Purging items: %s with options %s", items, options.toString()));
+
+        MultiTableBatchWriter writer = null;
+        BatchScanner batchScanner = null;
         try {
-            scanner = connector.createScanner(tableName, auths);
-            setupPurgeScanner(purgeJobId, scanner);
-            iterator = scanner.iterator();
+            final Set<Long> purgeIds = items.getItems();
+            final boolean serverSide = canLoadPurgeIterator();
+            writer = connector.createMultiTableBatchWriter(BATCH_WRITER_CONFIG);
+            final BatchWriter deleteWriter = writer.getBatchWriter(tableName);
+            final BatchWriter indexWriter = writer.getBatchWriter(bucketIndexTableName);
+
+            if (backendBatchSize == 0) {
+                batchScanner = connector.createBatchScanner(tableName, auths, batchScannerThreads);
+                batchScanner.setRanges(Collections.singletonList(new Range()));
+                if (serverSide) {
+                    batchScanner.addScanIterator(createPurgeIteratorSetting(purgeIds, false));
+                }
+
+                for (final Entry<Key, Value> entry : batchScanner) {
+                    processRow(
+                            purgeResult, entry.getKey(), getPurgeValue(entry, purgeIds, serverSide), deleteWriter,
+                            indexWriter);
+                }
+                purgeResult.setIsFinished(true);
+            } else {
+                final Scanner scanner = connector.createScanner(tableName, auths);
+                setupPurgeScanner(purgeJobId, scanner);
+                if (serverSide) {
+                    scanner.addScanIterator(createPurgeIteratorSetting(purgeIds, true));
+                }
 
-            while (iterator.hasNext() && (backendBatchSize == 0 || backendBatchCounter < backendBatchSize)) {
-                backendBatchCounter++;
-                processRow(security, purgeResult, toPurge, iterator.next());
+                final Iterator<Entry<Key, Value>> iterator = scanner.iterator();
+                int backendBatchCounter = 0;
+                while (iterator.hasNext() && backendBatchCounter < backendBatchSize) {
+                    backendBatchCounter++;
+                    final Entry<Key, Value> entry = iterator.next();
+                    processRow(
+                            purgeResult, entry.getKey(), getPurgeValue(entry, purgeIds, serverSide), deleteWriter,
+                            indexWriter);
+                }
+                finalizePurgeResult(purgeResult, iterator, purgeJobId, writer.getBatchWriter(purgeTableName));
             }
-            finalizePurgeResult(purgeResult, iterator, purgeJobId);
-        } catch (TableNotFoundException | IOException | MutationsRejectedException e) {
+
+            writer.close();
+        } catch (TableNotFoundException | AccumuloException | AccumuloSecurityException e) {
             logger.error(e.getMessage());
             throw new BlobException(e.getMessage());
+        } finally {
+            if (batchScanner != null) {
+                batchScanner.close();
+            }
+            closeQuietly(writer);
         }
 
         return purgeResult;
@@ -800,56 +979,44 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     }
 
     /**
-     * Removes a blob from the datastore
+     * Checks several buckets with one scan of the bucket index. The token must already be validated.
      *
-     * @param bucket that is being looked up
-     * @param key that will be used for the look up
-     * @param security of the the user who is doing the look up
-     * @param isPurge flag for adding visibility filter
-     * @return The number of affected rows upon delete.
+     * @param buckets buckets that must exist
+     * @param security token of the user performing the operation
      * @throws TException in case of an unexpected error
-     * @throws BlobException in case of an Accumulo Exception
+     * @throws BlobException if a bucket doesn't exist or isn't visible to the user
      */
-    private int removeBlob(String bucket, String key, EzSecurityToken security, boolean isPurge) throws TException {
-        try {
-            validateSecurityToken(security, this.getConfigurationProperties());
-
-            final Scanner scanner = connector.createScanner(tableName, getAuthsFromString(extractUserAuths(security)));
-
-            scanner.setRange(new Range(bucket));
-            scanner.fetchColumnFamily(new Text(key));
-            if (!isPurge) {
-                addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.WRITE));
-            }
+    private void checkBucketsExist(Set<String> buckets, EzSecurityToken security) throws TException {
+        final List<Range> ranges = new ArrayList<>();
+        for (final String bucket : buckets) {
+            ranges.add(Range.exact(bucket));
+        }
 
-            final BatchWriter deleteWriter = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
+        final Set<String> found = new HashSet<>();
+        BatchScanner scanner = null;
+        try {
+            scanner = connector.createBatchScanner(
+                    bucketIndexTableName, getScanAuthorizations(security), batchScannerThreads);
+            scanner.setRanges(ranges);
+            addEzBakeVisibilityFilter(scanner, security, EnumSet.of(Permission.DISCOVER));
+            scanner.addScanIterator(KEY_ONLY_ITERATOR_SETTING);
 
-            int affectedRows = 0;
             for (final Entry<Key, Value> entry : scanner) {
-                final ColumnVisibility viz = entry.getKey().getColumnVisibilityParsed();
-                final Text qual = entry.getKey().getColumnQualifier();
-                final Mutation deleteMutation = new Mutation(bucket);
-                System.out.println("Deleting.... Key: " + key + " qual: " + qual + " vis:" + viz);
-                deleteMutation.putDelete(new Text(key), qual, viz);
-                deleteWriter.addMutation(deleteMutation);
-
-                affectedRows++;
+                found.add(entry.getKey().getRow().toString());
             }
-
-            deleteWriter.flush();
-            deleteWriter.close();
-
-            // audit log
-            final String action = String.format("bucket: %s   key: %s", bucket, key);
-            auditLog(security, AuditEventType.FileObjectDelete, "removeBlob", action);
-
-            return affectedRows;
-        } catch (final MutationsRejectedException e) {
-            logger.error("Accumulo Exception", e);
-            throw new BlobException(e.getMessage());
         } catch (final TableNotFoundException e) {
-            logger.error("No table named " + tableName + " found", e);
+            logger.error("No table named " + bucketIndexTableName + " found", e);
             throw new BlobException(e.getMessage());
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+        }
+
+        for (final String bucket : buckets) {
+            if (!found.contains(bucket)) {
+                throw new BlobException("Bucket: " + bucket + " doesn't exist!  You must create it first");
+            }
         }
     }
 
@@ -863,11 +1030,23 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
             logger.error("Exception getting connector form AccumuloConfiguration", e);
         }
 
+        final EzProperties ezProps = new EzProperties(props, true);
+        tokenCache = new TokenCache(
+                props, ezProps.getLong(TOKEN_CACHE_EXPIRE_KEY, DEFAULT_TOKEN_CACHE_EXPIRE_MILLIS),
+                TOKEN_CACHE_SIZE);
+        batchScannerThreads = ezProps.getInteger(BATCH_SCANNER_THREADS_KEY, DEFAULT_BATCH_SCANNER_THREADS);
+        batchMaxKeys = ezProps.getInteger(BATCH_MAX_KEYS_KEY, DEFAULT_BATCH_MAX_KEYS);
+        batchMaxBytes = ezProps.getLong(BATCH_MAX_BYTES_KEY, DEFAULT_BATCH_MAX_BYTES);
+
         final String appName = new EzBakeApplicationConfigurationHelper(props).getApplicationName();
         tableName = String.format("%s_blobstore", appName);
+        bucketIndexTableName = String.format("%s_bucketIndex", appName);
         purgeTableName = String.format("%s_purgeTable", appName);
         logger.info("Ensuring blob store table {} for application {}", tableName, appName);
-        ensureTable(Lists.newArrayList(tableName, purgeTableName));
+        ensureTable(Lists.newArrayList(tableName, bucketIndexTableName, purgeTableName));
+        if (!isBucketIndexComplete()) {
+            buildBucketIndex();
+        }
 
         initMetrics();
 
@@ -881,6 +1060,7 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         final MetricRegistry mr = getMetricRegistry();
 
         mr.timer(EzBlobHandler.BLOB_GET_TIMER_NAME);
+        mr.timer(EzBlobHandler.BLOB_GET_BATCH_TIMER_NAME);
         mr.timer(EzBlobHandler.BLOB_PUT_TIMER_NAME);
         mr.meter(EzBlobHandler.BLOB_PUT_METER_NAME);
         mr.histogram(EzBlobHandler.BLOB_PUT_HISTOGRAM_NAME);
@@ -914,11 +1094,97 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         }
     }
 
+    /**
+     * @return true if a previous {@link #buildBucketIndex()} ran to completion
+     * @throws TException in case of an Accumulo Exception
+     */
+    private boolean isBucketIndexComplete() throws TException {
+        try {
+            final Scanner scanner = connector.createScanner(purgeTableName, new Authorizations());
+            scanner.setRange(new Range(BUCKET_INDEX_COMPLETE_ROW));
+            return scanner.iterator().hasNext();
+        } catch (final TableNotFoundException e) {
+            logger.error("No table named " + purgeTableName + " found", e);
+            throw new BlobException(e.getMessage());
+        }
+    }
+
+    /**
+     * Fills the bucket index from the bucket entries in the blob table, so stores created before the index existed
+     * keep listing their buckets. The completion marker is written only after every entry is flushed, so a build that
+     * dies part way is redone on the next start. Rewriting entries that are already indexed is harmless.
+     *
+     * @throws TException in case of an Accumulo Exception
+     */
+    private void buildBucketIndex() throws TException {
+        try {
+            final Authorizations auths =
+                    connector.securityOperations().getUserAuthorizations(connector.whoami());
+            final Scanner scanner = connector.createScanner(tableName, auths);
+            scanner.fetchColumnFamily(EMPTY_TEXT);
+
+            final BatchWriter writer = connector.createBatchWriter(bucketIndexTableName, BATCH_WRITER_CONFIG);
+            int buckets = 0;
+            for (final Entry<Key, Value> entry : scanner) {
+                writer.addMutation(
+                        createBucketIndexMutation(
+                                entry.getKey().getRow().toString(), entry.getKey().getColumnVisibilityParsed(),
+                                entry.getValue()));
+                buckets++;
+            }
+            writer.close();
+
+            final Mutation marker = new Mutation(BUCKET_INDEX_COMPLETE_ROW);
+            marker.put(EMPTY_TEXT, EMPTY_TEXT, new Value(new byte[0]));
+            final BatchWriter purgeWriter = connector.createBatchWriter(purgeTableName, BATCH_WRITER_CONFIG);
+            purgeWriter.addMutation(marker);
+            purgeWriter.close();
+
+            logger.info("Indexed {} existing buckets in {}", buckets, bucketIndexTableName);
+        } catch (final AccumuloException | AccumuloSecurityException e) {
+            logger.error("Accumulo Exception", e);
+            throw new BlobException(e.getMessage());
+        } catch (final TableNotFoundException e) {
+            logger.error("No table named " + tableName + " found", e);
+            throw new BlobException(e.getMessage());
+        }
+    }
+
+    private static Mutation createBucketIndexMutation(String bucketName, ColumnVisibility visibility, Value value) {
+        final Mutation mutation = new Mutation(bucketName);
+        mutation.put(EMPTY_TEXT, EMPTY_TEXT, visibility, value);
+        return mutation;
+    }
+
+    /**
+     * Checks for a visible entry without reading any values. The scanner must already have its visibility filter.
+     *
+     * @param scanner scanner over the entries to check
+     * @return true if the scanner returns at least one entry
+     */
+    private static boolean hasVisibleKey(Scanner scanner) {
+        scanner.addScanIterator(KEY_ONLY_ITERATOR_SETTING);
+        scanner.setBatchSize(1);
+        return scanner.iterator().hasNext();
+    }
+
+    /**
+     * Validates the token, unless the same token was validated recently.
+     *
+     * @param security token of the user performing the operation
+     * @throws TException if the token is not valid
+     */
+    private void validateToken(EzSecurityToken security) throws TException {
+        tokenCache.get(security);
+    }
+
+    private Authorizations getScanAuthorizations(EzSecurityToken security) throws TException {
+        return tokenCache.get(security).getAuthorizations();
+    }
+
     private void addEzBakeVisibilityFilter(ScannerBase scanner, EzSecurityToken token, Set<Permission> permissions)
             throws TException {
-        iteratorSetting.clearOptions();
-        EzBakeVisibilityFilter.setOptions(iteratorSetting, token.getAuthorizations(), permissions);
-        scanner.addScanIterator(iteratorSetting);
+        scanner.addScanIterator(tokenCache.get(token).getVisibilityFilter(permissions));
     }
 
     private void auditLog(EzSecurityToken userToken, AuditEventType eventType, String action, String description) {
@@ -933,17 +1199,15 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
      *
      * @param entry a blob store entry to put into the data store consists of a bucket, key, blob, and visibility
      * @param security the security label of the user looking up the blob
-     * @param useVisibility whether or not to serialize token's bitvector into value field, this is skipped for the
-     * copyBlob method
      * @throws TException in case of an unexpected error
      * @throws ezbake.data.base.blob.thrift.BlobException in case of an Accumulo Exception or Permission Exception
      */
-    private void putBlob(Blob entry, EzSecurityToken security, boolean useVisibility) throws TException {
+    private void writeBlob(Blob entry, EzSecurityToken security) throws TException {
         if (entry.visibility == null || StringUtils.isEmpty(entry.visibility.getFormalVisibility())) {
             throw new BlobException("Visibility was not provided on putBlob!");
         }
 
-        if (useVisibility && !hasPermissions(
+        if (!hasPermissions(
                 security.getAuthorizations(), entry.getVisibility(), EnumSet.of(Permission.WRITE))) {
             throw new BlobException("User does not have permission for WRITE on Blob");
         }
@@ -952,21 +1216,22 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         getMetricRegistry().getMeters().get(EzBlobHandler.BLOB_PUT_METER_NAME).mark();
         final Timer.Context context = getMetricRegistry().getTimers().get(EzBlobHandler.BLOB_PUT_TIMER_NAME).time();
 
-        validateSecurityToken(security, this.getConfigurationProperties());
+        validateToken(security);
         try {
             final byte[] entryBlob = entry.getBlob();
 
-            final byte[] blob =
-                    useVisibility ? serializeVisibilityWithData(entry.getVisibility(), entryBlob) : entryBlob;
+            // Throw an Exception if the blob is larger than the maximum, before copying it into a serialized value
+            if (entryBlob.length > MAX_BLOB_SIZE_BYTES) {
+                throw createBlobTooBigException();
+            }
+
+            final byte[] blob = serializeVisibilityWithData(entry.getVisibility(), entryBlob);
 
             final Visibility visibility = entry.visibility;
 
-            // Throw an Exception if the blob is larger than the maximum
+            // The serialized visibility counts toward the maximum as well
             if (blob.length > MAX_BLOB_SIZE_BYTES) {
-                throw new BlobException(
-                        String.format(
-                                "The blob you're trying to store is too big! Please only store BLOB data less than or"
-                                        + " equal to %d MB", MAX_BLOB_SIZE_MB));
+                throw createBlobTooBigException();
             }
 
             final BatchWriter writer = connector.createBatchWriter(tableName, BATCH_WRITER_CONFIG);
@@ -975,27 +1240,17 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
 
             final String bucketVis = getBucketVisibility(entry.getBucket(), security).getFormalVisibility();
 
-            final String booleanExpressionString = "(" + bucketVis + ")&(" + visibility.getFormalVisibility() + ")";
-
-            logger.debug("in putBlob, booleanExpressionString: " + booleanExpressionString);
-            final Mutation m = new Mutation(entry.getBucket());
-
-            m.put(
-                    new Text(entry.getKey()), new Text(
-                            "{bucketVisibility:" + entry.visibility.getFormalVisibility() + ", blobVisibility:"
-                                    + visibility.getFormalVisibility() + "}"),
-                    new ColumnVisibility(booleanExpressionString), new Value(blob));
-
-            writer.addMutation(m);
+            writer.addMutation(
+                    createBlobMutation(entry.getBucket(), entry.getKey(), visibility, bucketVis, new Value(blob)));
             writer.flush();
             writer.close();
 
             // keep track of how big the blobs are that we are storing for metrics
             getMetricRegistry().getHistograms().get(EzBlobHandler.BLOB_PUT_HISTOGRAM_NAME)
-                    .update(entry.getBlob().length);
+                    .update(entryBlob.length);
 
             // audit log
-            final String description = String.format("key: %s size: %s", entry.getKey(), entry.getBlob().length);
+            final String description = String.format("key: %s size: %s", entry.getKey(), entryBlob.length);
 
             auditLog(security, AuditEventType.FileObjectCreate, "putBlob", description);
         } catch (final MutationsRejectedException e) {
@@ -1012,33 +1267,143 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         }
     }
 
+    /**
+     * Builds the entry for a blob. The column visibility combines the bucket and blob visibilities.
+     *
+     * @param bucket bucket of the blob
+     * @param key key of the blob
+     * @param visibility visibility of the blob
+     * @param bucketVis formal visibility of the bucket
+     * @param value serialized visibility and blob
+     * @return mutation putting the blob
+     */
+    private static Mutation createBlobMutation(
+            String bucket, String key, Visibility visibility, String bucketVis, Value value) {
+        final String booleanExpressionString = "(" + bucketVis + ")&(" + visibility.getFormalVisibility() + ")";
+        logger.debug("Blob column visibility: " + booleanExpressionString);
+
+        final Mutation m = new Mutation(bucket);
+        m.put(
+                new Text(key), new Text(
+                        "{bucketVisibility:" + visibility.getFormalVisibility() + ", blobVisibility:"
+                                + visibility.getFormalVisibility() + "}"),
+                new ColumnVisibility(booleanExpressionString), value);
+        return m;
+    }
+
+    /**
+     * Logs how far a long running operation has got every {@link #INTERVAL} entries.
+     */
+    private static final class ProgressLogger {
+        private static final int INTERVAL = 10000;
+
+        private final String operation;
+        private long count;
+
+        ProgressLogger(String operation) {
+            this.operation = operation;
+        }
+
+        void increment() {
+            count++;
+            if (count % INTERVAL == 0) {
+                logger.info("{}: {} entries processed", operation, count);
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    private static BlobException createBlobTooBigException() {
+        return new BlobException(
+                String.format(
+                        "The blob you're trying to store is too big! Please only store BLOB data less than or"
+                                + " equal to %d MB", MAX_BLOB_SIZE_MB));
+    }
+
+    /**
+     * Returns the blob held in a deserialized value without copying it. Thrift reads binary fields as a view of the
+     * bytes it deserializes from, while {@code getValue()} would copy the blob into a right-sized array first.
+     *
+     * @param wrapper deserialized value
+     * @return buffer over the blob bytes
+     */
+    private static ByteBuffer getPayload(VisibilityWrapper wrapper) {
+        return wrapper.value == null ? ByteBuffer.wrap(new byte[0]) : wrapper.value.slice();
+    }
+
+    /**
+     * Checks whether the tablet servers can load {@link PurgeIterator} for the blob table. If the ezblob jar hasn't
+     * been deployed to them, scanning with the iterator would fail, so purges match entries in the service instead.
+     *
+     * @return whether purges can use the tablet server iterator
+     */
+    private boolean canLoadPurgeIterator() {
+        try {
+            if (connector.tableOperations().testClassLoad(
+                    tableName, PurgeIterator.class.getName(), SortedKeyValueIterator.class.getName())) {
+                return true;
+            }
+        } catch (AccumuloException | AccumuloSecurityException | TableNotFoundException e) {
+            logger.warn("Could not check whether tablet servers can load the purge iterator", e);
+        }
+
+        logger.warn(
+                "{} is not deployed to the tablet servers, matching purge IDs in the service",
+                PurgeIterator.class.getName());
+        return false;
+    }
+
+    /**
+     * @param entry entry from the purge scan
+     * @param purgeIds provenance IDs to purge
+     * @param serverSide whether the scan used {@link PurgeIterator}
+     * @return the {@link PurgeIterator} value of a matching entry, or null if the entry doesn't match
+     */
+    private static Value getPurgeValue(Entry<Key, Value> entry, Set<Long> purgeIds, boolean serverSide) {
+        if (!serverSide) {
+            return PurgeIterator.evaluate(entry.getValue(), purgeIds);
+        }
+
+        return PurgeIterator.isMatch(entry.getValue()) ? entry.getValue() : null;
+    }
+
+    private static IteratorSetting createPurgeIteratorSetting(Set<Long> purgeIds, boolean keepAll) {
+        final IteratorSetting setting = new IteratorSetting(50, "ezBlobPurge", PurgeIterator.class);
+        PurgeIterator.setOptions(setting, purgeIds, keepAll);
+        return setting;
+    }
+
+    private static void closeQuietly(MultiTableBatchWriter writer) {
+        if (writer != null && !writer.isClosed()) {
+            try {
+                writer.close();
+            } catch (final MutationsRejectedException e) {
+                logger.error("Could not close batch writer", e);
+            }
+        }
+    }
+
     /**
      * Save the current bucket / key of the purge job that is currently running in the purge table as a comma delimited
-     * string from the entry passed in.
+     * string from the entry passed in.  A newer checkpoint replaces the older one.
      *
      * @param purgeJobId id of the current purgeJob to lookup.
      * @param entry Entry containing bucket / key to persist for next purge scan.
-     * @throws TableNotFoundException if purge table isn't found.
+     * @param purgeWriter writer for the purge table.
      * @throws MutationsRejectedException if mutations aren't persisted.
      */
-    private void persistPurgeStatus(long purgeJobId, Entry<Key, Value> entry)
-            throws TableNotFoundException, MutationsRejectedException {
-        final BatchWriter writer = connector.createBatchWriter(purgeTableName, BATCH_WRITER_CONFIG);
-        final BatchDeleter deleter =
-                connector.createBatchDeleter(tableName, new Authorizations(), 1, BATCH_WRITER_CONFIG);
-        deleter.setRanges(Lists.newArrayList(new Range(String.valueOf(purgeJobId))));
-        deleter.delete();
-        deleter.close();
-
+    private static void persistPurgeStatus(long purgeJobId, Entry<Key, Value> entry, BatchWriter purgeWriter)
+            throws MutationsRejectedException {
         final Mutation purgeStatus = new Mutation(String.valueOf(purgeJobId));
         purgeStatus.put(
                 new Text(), new Text(), new Value(
                         (String.format(
                                 "%s,%s", entry.getKey().getRow().toString(),
                                 entry.getKey().getColumnFamily().toString())).getBytes()));
-        writer.addMutation(purgeStatus);
-        writer.flush();
-        writer.close();
+        purgeWriter.addMutation(purgeStatus);
     }
 
     /**
@@ -1052,8 +1417,9 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
         final Scanner purgeScanner = connector.createScanner(purgeTableName, new Authorizations());
         purgeScanner.setRange(new Range(String.valueOf(purgeJobId)));
 
-        if (purgeScanner.iterator().hasNext()) {
-            final Entry<Key, Value> entry = purgeScanner.iterator().next();
+        final Iterator<Entry<Key, Value>> purgeIterator = purgeScanner.iterator();
+        if (purgeIterator.hasNext()) {
+            final Entry<Key, Value> entry = purgeIterator.next();
             final String[] scannerArgs = entry.getValue().toString().split(",");
             final Key startKey = new Key(scannerArgs[0], scannerArgs[1]);
             scanner.setRange(new Range(startKey, null));
@@ -1061,53 +1427,67 @@ public class EzBlobHandler extends EzbakeBaseDataService implements EzBlob.Iface
     }
 
     /**
-     * If purge is finished set isFinished to true, else persist current entry of purge for next call.
+     * If purge is finished set isFinished to true and drop the checkpoint, else persist current entry of purge for
+     * next call.
      *
      * @param purgeResult purgeResult object to return.
      * @param iterator iterator to check if purge is finished and fetch current entry.
      * @param purgeJobId purge job currently running.
-     * @throws TableNotFoundException in case of unexpected error.
+     * @param purgeWriter writer for the purge table.
      * @throws MutationsRejectedException in case of unexpected error.
      */
-    private void finalizePurgeResult(PurgeResult purgeResult, Iterator<Entry<Key, Value>> iterator, long purgeJobId)
-            throws TableNotFoundException, MutationsRejectedException {
+    private static void finalizePurgeResult(
+            PurgeResult purgeResult, Iterator<Entry<Key, Value>> iterator, long purgeJobId, BatchWriter purgeWriter)
+            throws MutationsRejectedException {
         if (iterator.hasNext()) {
             purgeResult.setIsFinished(false);
             final Entry<Key, Value> entry = iterator.next();
-            persistPurgeStatus(purgeJobId, entry);
+            persistPurgeStatus(purgeJobId, entry, purgeWriter);
         } else {
             purgeResult.setIsFinished(true);
+            final Mutation purgeStatus = new Mutation(String.valueOf(purgeJobId));
+            purgeStatus.putDelete(new Text(), new Text());
+            purgeWriter.addMutation(purgeStatus);
         }
     }
 
     /**
-     * If the current row is part of the list of provenanceIds to purge, delete it from the store and add it to the
-     * purged list.  If the current record is composite, add it to the unpurged list.
+     * If the current entry matched the purge, delete it from the store and add its provenance id to the purged list.
+     * If the matched entry is composite, add it to the unpurged list instead. Purging a bucket entry also removes
+     * its bucket index entry.
      *
-     * @param security Token to potentially call remove blob with.
      * @param purgeResult purgeResult to add to.
-     * @param provenanceIdsToPurge list of items to purge.
-     * @param entry current entry being processed.
-     * @throws TException in case of unexpectedError.
-     * @throws IOException in case of unexpectedError.
+     * @param key key of the current entry being processed.
+     * @param purgeValue value {@link PurgeIterator} returns for the entry, or null if it didn't match.
+     * @param deleteWriter writer for the blob table.
+     * @param indexWriter writer for the bucket index table.
+     * @throws MutationsRejectedException in case of unexpectedError.
      */
-    private void processRow(
-            EzSecurityToken security, PurgeResult purgeResult, Set<Long> provenanceIdsToPurge, Entry<Key, Value> entry)
-            throws TException, IOException {
-        final Visibility visibility = deserializeVisibilityWrappedValue(entry.getValue()).getVisibilityMarkings();
-        final long entryProvenanceId = visibility.getAdvancedMarkings().getId();
-        if (provenanceIdsToPurge.contains(entryProvenanceId)) {
-            final String bucket = entry.getKey().getRow().toString();
-            final String key = entry.getKey().getColumnFamily().toString();
-            if (visibility.getAdvancedMarkings().isComposite()) {
-                logger.info(String.format("Composite item cannot be purged, bucket: %s and key: %s", bucket, key));
-                purgeResult.addToUnpurged(entryProvenanceId);
-            } else {
-                logger.info(String.format("Purging bucket: %s and key: %s", bucket, key));
-                removeBlob(bucket, key, security, true);
-                purgeResult.addToPurged(entryProvenanceId);
+    private static void processRow(
+            PurgeResult purgeResult, Key key, Value purgeValue, BatchWriter deleteWriter, BatchWriter indexWriter)
+            throws MutationsRejectedException {
+        if (purgeValue == null) {
+            return;
+        }
+
+        final long entryProvenanceId = PurgeIterator.getProvenanceId(purgeValue);
+        if (PurgeIterator.isComposite(purgeValue)) {
+            logger.info(
+                    String.format(
+                            "Composite item cannot be purged, bucket: %s and key: %s", key.getRow(),
+                            key.getColumnFamily()));
+            purgeResult.addToUnpurged(entryProvenanceId);
+        } else {
+            logger.info(String.format("Purging bucket: %s and key: %s", key.getRow(), key.getColumnFamily()));
+            final Mutation deleteMutation = new Mutation(key.getRow());
+            deleteMutation.putDelete(key.getColumnFamily(), key.getColumnQualifier(), key.getColumnVisibilityParsed());
+            deleteWriter.addMutation(deleteMutation);
+            if (key.getColumnFamily().getLength() == 0) {
+                final Mutation indexDelete = new Mutation(key.getRow());
+                indexDelete.putDelete(EMPTY_TEXT, EMPTY_TEXT, key.getColumnVisibilityParsed());
+                indexWriter.addMutation(indexDelete);
             }
-            provenanceIdsToPurge.remove(entryProvenanceId);
+            purgeResult.addToPurged(entryProvenanceId);
         }
     }
 }
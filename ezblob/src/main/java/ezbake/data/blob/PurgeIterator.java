@@ -0,0 +1,182 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.blob;
+
+import static ezbake.security.serialize.VisibilitySerialization.deserializeVisibilityWrappedValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ezbake.base.thrift.AdvancedMarkings;
+import ezbake.base.thrift.Visibility;
+
+/**
+ * Tablet server iterator for purges. It checks the provenance ID and composite flag of each blob, so the service
+ * never reads blob contents. A matching entry's value is replaced by its provenance ID and composite flag. Other
+ * entries are either dropped or, if the purge needs to count every entry it passes, kept with an empty value.
+ * <p/>
+ * The tablet servers only load this class if the ezblob jar is on their classpath, e.g. copied to
+ * <code>$ACCUMULO_HOME/lib/ext</code> or added to a classpath context set on the blob table with
+ * <code>table.classpath.context</code>. When it can't be loaded, purges match entries in the service with
+ * {@link #evaluate(Value, Set)} instead.
+ */
+public class PurgeIterator extends WrappingIterator {
+    private static final Logger logger = LoggerFactory.getLogger(PurgeIterator.class);
+
+    private static final String PURGE_IDS_OPTION = "purgeIds";
+    private static final String KEEP_ALL_OPTION = "keepAll";
+    private static final Value NOT_PURGED = new Value(new byte[0]);
+
+    private Set<Long> purgeIds;
+    private boolean keepAll;
+    private Value topValue;
+
+    /**
+     * @param setting iterator setting for this iterator
+     * @param purgeIds provenance IDs to purge
+     * @param keepAll whether entries that don't match are returned with an empty value instead of being dropped
+     */
+    public static void setOptions(IteratorSetting setting, Collection<Long> purgeIds, boolean keepAll) {
+        setting.addOption(PURGE_IDS_OPTION, StringUtils.join(purgeIds, ','));
+        setting.addOption(KEEP_ALL_OPTION, Boolean.toString(keepAll));
+    }
+
+    /**
+     * @param value value returned through this iterator
+     * @return whether the entry has one of the provenance IDs being purged
+     */
+    public static boolean isMatch(Value value) {
+        return value.getSize() > 0;
+    }
+
+    /**
+     * @param value value of a matching entry returned through this iterator
+     * @return provenance ID of the entry
+     */
+    public static long getProvenanceId(Value value) {
+        return Long.parseLong(decode(value)[0]);
+    }
+
+    /**
+     * @param value value of a matching entry returned through this iterator
+     * @return whether the entry is composite and so can't be purged
+     */
+    public static boolean isComposite(Value value) {
+        return Boolean.parseBoolean(decode(value)[1]);
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException {
+        super.init(source, options, env);
+
+        purgeIds = new HashSet<>();
+        final String ids = options.get(PURGE_IDS_OPTION);
+        if (StringUtils.isNotEmpty(ids)) {
+            for (final String id : ids.split(",")) {
+                purgeIds.add(Long.parseLong(id));
+            }
+        }
+        keepAll = Boolean.parseBoolean(options.get(KEEP_ALL_OPTION));
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        final PurgeIterator copy = new PurgeIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.purgeIds = purgeIds;
+        copy.keepAll = keepAll;
+        return copy;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        super.seek(range, columnFamilies, inclusive);
+        findTop();
+    }
+
+    @Override
+    public void next() throws IOException {
+        super.next();
+        findTop();
+    }
+
+    @Override
+    public Value getTopValue() {
+        return topValue;
+    }
+
+    private void findTop() throws IOException {
+        topValue = null;
+        while (getSource().hasTop()) {
+            final Value purgeValue = evaluate(getSource().getTopValue(), purgeIds);
+            if (purgeValue != null) {
+                topValue = purgeValue;
+                return;
+            }
+
+            if (keepAll) {
+                topValue = NOT_PURGED;
+                return;
+            }
+
+            getSource().next();
+        }
+    }
+
+    /**
+     * Match a stored blob entry against the provenance IDs being purged.
+     *
+     * @param value value as stored in the blob table
+     * @param purgeIds provenance IDs to purge
+     * @return the value this iterator returns for a matching entry, or null if the entry doesn't match
+     */
+    public static Value evaluate(Value value, Set<Long> purgeIds) {
+        final Visibility visibility;
+        try {
+            visibility = deserializeVisibilityWrappedValue(value).getVisibilityMarkings();
+        } catch (final IOException e) {
+            logger.warn("Could not read visibility, skipping entry", e);
+            return null;
+        }
+
+        final AdvancedMarkings markings = visibility.getAdvancedMarkings();
+        if (markings == null || !purgeIds.contains(markings.getId())) {
+            return null;
+        }
+
+        return new Value(
+                String.format("%d,%b", markings.getId(), markings.isComposite()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(Value value) {
+        return new String(value.get(), StandardCharsets.UTF_8).split(",");
+    }
+}
@@ -0,0 +1,124 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.blob;
+
+import static ezbake.data.common.TokenUtils.validateSecurityToken;
+import static ezbake.data.common.classification.ClassificationUtils.extractUserAuths;
+import static ezbake.data.common.classification.ClassificationUtils.getAuthsFromString;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.thrift.TException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.Permission;
+import ezbake.data.iterator.EzBakeVisibilityFilter;
+
+/**
+ * Caches what a request needs from a security token: the result of validating it, the scan authorizations and the
+ * visibility filter settings. Tokens are looked up by signature and must be equal to the cached copy, so a token whose
+ * authorizations were changed is validated and prepared again. Entries are dropped after the configured time and never
+ * outlive the token itself.
+ */
+final class TokenCache {
+    private static final int VISIBILITY_FILTER_PRIORITY = 42;
+    private static final String VISIBILITY_FILTER_NAME = "ezBlobIterator";
+
+    private final Properties config;
+    private final Cache<String, PreparedToken> tokens;
+
+    /**
+     * @param config service configuration used to validate tokens
+     * @param expireMillis how long a validated token is trusted before it is validated again
+     * @param maxSize maximum number of cached tokens
+     */
+    TokenCache(Properties config, long expireMillis, int maxSize) {
+        this.config = config;
+        this.tokens = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Validates the token the first time it is seen and returns what was prepared for it.
+     *
+     * @param token token of the user performing the operation
+     * @return prepared authorizations and visibility filters for the token
+     * @throws TException if the token is not valid
+     */
+    PreparedToken get(EzSecurityToken token) throws TException {
+        final String signature = token.isSetValidity() ? token.getValidity().getSignature() : null;
+        if (signature == null) {
+            validateSecurityToken(token, config);
+            return new PreparedToken(token.deepCopy());
+        }
+
+        final PreparedToken cached = tokens.getIfPresent(signature);
+        if (cached != null && cached.token.equals(token)
+                && System.currentTimeMillis() < cached.token.getValidity().getNotAfter()) {
+            return cached;
+        }
+
+        validateSecurityToken(token, config);
+        final PreparedToken prepared = new PreparedToken(token.deepCopy());
+        tokens.put(signature, prepared);
+        return prepared;
+    }
+
+    /**
+     * Authorizations and visibility filter settings for one token.
+     */
+    static final class PreparedToken {
+        private final EzSecurityToken token;
+        private final Authorizations authorizations;
+        private final ConcurrentMap<Set<Permission>, IteratorSetting> visibilityFilters = new ConcurrentHashMap<>();
+
+        private PreparedToken(EzSecurityToken token) {
+            this.token = token;
+            this.authorizations = getAuthsFromString(extractUserAuths(token));
+        }
+
+        /**
+         * @return scan authorizations of the token
+         */
+        Authorizations getAuthorizations() {
+            return authorizations;
+        }
+
+        /**
+         * @param permissions permissions the token must have on an entry for it to be returned
+         * @return iterator setting for the visibility filter, which callers must not change
+         * @throws TException if the filter options could not be set
+         */
+        IteratorSetting getVisibilityFilter(Set<Permission> permissions) throws TException {
+            IteratorSetting setting = visibilityFilters.get(permissions);
+            if (setting == null) {
+                setting = new IteratorSetting(
+                        VISIBILITY_FILTER_PRIORITY, VISIBILITY_FILTER_NAME, EzBakeVisibilityFilter.class);
+                EzBakeVisibilityFilter.setOptions(setting, token.getAuthorizations(), permissions);
+                visibilityFilters.putIfAbsent(Sets.immutableEnumSet(permissions), setting);
+            }
+            return setting;
+        }
+    }
+}
@@ -33,6 +33,8 @@ import ezbakehelpers.accumulo.AccumuloHelper;
 import ezbakehelpers.accumulo.NamespacedConnector;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Instance;
 import org.apache.accumulo.core.client.NamespaceNotEmptyException;
@@ -41,6 +43,8 @@ import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.admin.NamespaceOperations;
 import org.apache.accumulo.core.client.mock.MockInstance;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.hadoop.io.Text;
 import org.apache.thrift.TException;
 import org.junit.After;
 import org.junit.Before;
@@ -54,6 +58,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
@@ -78,6 +83,16 @@ public class EzBlobHandlerTest {
 
     @After
     public void tearDown() throws AccumuloSecurityException, AccumuloException, NamespaceNotFoundException, NamespaceNotEmptyException, TableNotFoundException {
+        final Connector connector = createConnector();
+
+        connector.tableOperations().delete("null_blobstore");
+        connector.tableOperations().delete("null_purgeTable");
+        connector.tableOperations().delete("null_bucketIndex");
+        connector.namespaceOperations().delete("test");
+        handler = null;
+    }
+
+    private static Connector createConnector() throws AccumuloSecurityException, AccumuloException {
         final Properties props = new Properties();
 
         final String namespaceName = "test";
@@ -93,12 +108,7 @@ public class EzBlobHandlerTest {
         final Instance instance = new MockInstance(accumuloHelper.getAccumuloInstance());
         Connector connector = instance.getConnector(accumuloHelper.getAccumuloUsername(),
                 new PasswordToken(accumuloHelper.getAccumuloPassword()));
-        connector = new NamespacedConnector(connector, accumuloHelper.getAccumuloNamespace());
-
-        connector.tableOperations().delete("null_blobstore");
-        connector.tableOperations().delete("null_purgeTable");
-        connector.namespaceOperations().delete(namespaceName);
-        handler = null;
+        return new NamespacedConnector(connector, accumuloHelper.getAccumuloNamespace());
     }
 
     /**
@@ -174,6 +184,40 @@ public class EzBlobHandlerTest {
         assertEquals(0, Iterables.size(blobs));
     }
 
+    /**
+     * Test of getBlobsBatch across buckets, including keys the user can't see and keys with no blobs
+     */
+    @Test
+    public void testGetBlobsBatch() throws Exception {
+        final String bucket1 = TEST_BUCKET + "_testGetBlobsBatch1", bucket2 = TEST_BUCKET + "_testGetBlobsBatch2";
+        final Visibility secret = new Visibility().setFormalVisibility("S");
+        final Visibility topSecret = new Visibility().setFormalVisibility("TS");
+        handler.createBucket(bucket1, secret, USER_WITH_TS_S_B);
+        handler.createBucket(bucket2, secret, USER_WITH_TS_S_B);
+        handler.putBlob(new Blob(bucket1, "key1", ByteBuffer.wrap("blob1".getBytes()), secret), USER_WITH_TS_S_B);
+        handler.putBlob(new Blob(bucket2, "key2", ByteBuffer.wrap("blob2".getBytes()), secret), USER_WITH_TS_S_B);
+        handler.putBlob(new Blob(bucket2, "key3", ByteBuffer.wrap("blob3".getBytes()), topSecret), USER_WITH_TS_S_B);
+
+        final BlobKey key1 = new BlobKey(bucket1, "key1"), key2 = new BlobKey(bucket2, "key2"),
+                key3 = new BlobKey(bucket2, "key3"), missing = new BlobKey(bucket1, "missing");
+        final EzSecurityToken secretUser = TestUtils.createTestToken("S", "USA");
+        final Map<BlobKey, Set<ByteBuffer>> blobs =
+                handler.getBlobsBatch(Arrays.asList(key1, key2, key3, missing, key1), secretUser);
+
+        assertEquals(4, blobs.size());
+        assertEquals(Sets.newHashSet(ByteBuffer.wrap("blob1".getBytes())), blobs.get(key1));
+        assertEquals(Sets.newHashSet(ByteBuffer.wrap("blob2".getBytes())), blobs.get(key2));
+        assertTrue(blobs.get(key3).isEmpty());
+        assertTrue(blobs.get(missing).isEmpty());
+
+        try {
+            handler.getBlobsBatch(Arrays.asList(key1, new BlobKey("someotherbucket", "key1")), secretUser);
+            fail("Expected an exception for a bucket that doesn't exist");
+        } catch (final BlobException e) {
+            // expected
+        }
+    }
+
     /**
      * Test putBlob method and verify that there is a maximum size enforced
      */
@@ -885,6 +929,43 @@ public class EzBlobHandlerTest {
         assertEquals(0, handler.getBlobs(TEST_BUCKET, "TEST_KEY2", USER_WITH_TS_S_B).size());
     }
 
+    @Test
+    public void testPurgeRemovesBucketFromIndex() throws Exception {
+        final Visibility visibility = new Visibility().setFormalVisibility("TS")
+                .setAdvancedMarkings(new AdvancedMarkings().setId(7));
+        handler.createBucket(TEST_BUCKET, visibility, USER_WITH_TS_S_B);
+        assertTrue(handler.doesBucketExist(TEST_BUCKET, USER_WITH_TS_S_B));
+
+        final PurgeResult purgeResult = handler.purge(
+                new PurgeItems().setItems(Sets.newHashSet(7L)), new PurgeOptions(), USER_WITH_TS_S_B);
+
+        assertEquals(Sets.newHashSet(7L), purgeResult.getPurged());
+        assertFalse(handler.doesBucketExist(TEST_BUCKET, USER_WITH_TS_S_B));
+        assertFalse(handler.listBuckets(USER_WITH_TS_S_B).contains(TEST_BUCKET));
+    }
+
+    @Test
+    public void testIncompleteBucketIndexIsRebuilt() throws Exception {
+        final Visibility visibility = new Visibility().setFormalVisibility("TS");
+        handler.createBucket(TEST_BUCKET, visibility, USER_WITH_TS_S_B);
+
+        // Simulate a store from before the index, or an index build that died before writing its completion marker
+        final Connector connector = createConnector();
+        connector.tableOperations().deleteRows("null_bucketIndex", null, null);
+        final BatchWriter writer = connector.createBatchWriter("null_purgeTable", new BatchWriterConfig());
+        final Mutation marker = new Mutation("bucketIndexComplete");
+        marker.putDelete(new Text(), new Text());
+        writer.addMutation(marker);
+        writer.close();
+        assertFalse(handler.doesBucketExist(TEST_BUCKET, USER_WITH_TS_S_B));
+
+        // Calls init() again, as a restarted service would
+        configureMockAccumuloAndSecurityService();
+
+        assertTrue(handler.doesBucketExist(TEST_BUCKET, USER_WITH_TS_S_B));
+        assertTrue(handler.listBuckets(USER_WITH_TS_S_B).contains(TEST_BUCKET));
+    }
+
     @Test
     public void testGetBlobsThrowsExceptionWhenBucketDoesntExist() throws TException {
         boolean exceptionCaught = false;
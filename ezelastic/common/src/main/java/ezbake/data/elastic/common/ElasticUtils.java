@@ -37,6 +37,7 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.ScriptFilterBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.facet.FacetBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.GeoDistanceSortBuilder;
 import org.elasticsearch.search.sort.SortBuilder;
@@ -69,6 +70,17 @@ public final class ElasticUtils {
 
     public static final String VISIBILITY_FIELD = "ezbake_visibility";
 
+    /**
+     * Purge (provenance) ID from the document visibility's advanced markings, indexed so purges can query for it
+     */
+    public static final String PURGE_ID_FIELD = "ezbake_purge_id";
+
+    /**
+     * Whether the document is a composite of other items, in which case it can't be purged. Every document indexed
+     * with the provenance fields has it, so documents without it are from before the fields existed.
+     */
+    public static final String COMPOSITE_FIELD = "ezbake_composite";
+
     private static final Logger logger = LoggerFactory.getLogger(ElasticUtils.class);
 
     private ElasticUtils() {
@@ -181,6 +193,20 @@ public final class ElasticUtils {
         return ThriftToFacetConversions.addFacetsToSearch(facets, builder, filter);
     }
 
+    /**
+     * Converts facets to facet builders without adding them to a search, so the builders can be reused across
+     * searches.
+     *
+     * @param facets facets to convert
+     * @param filter visibility filter to apply to every facet
+     * @param facetBuilders list the converted facet builders are added to
+     * @return the type of each facet by label, for reading the facet results
+     */
+    public static Map<String, FacetRequest._Fields> convertFacets(
+            List<Facet> facets, FilterBuilder filter, List<FacetBuilder> facetBuilders) {
+        return ThriftToFacetConversions.convertFacets(facets, filter, facetBuilders);
+    }
+
     public static Map<String, FacetResult> getFacetsFromResult(
             Map<String, FacetRequest._Fields> facetMap,
             Map<String, org.elasticsearch.search.facet.Facet> elasticFacets) {
@@ -14,6 +14,7 @@
 
 package ezbake.data.elastic.common;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +64,17 @@ final class ThriftToFacetConversions {
 
     static Map<String, FacetRequest._Fields> addFacetsToSearch(
             List<Facet> facets, SearchRequestBuilder builder, FilterBuilder visibilityFilter) {
+        final List<FacetBuilder> facetBuilders = new ArrayList<>();
+        final Map<String, FacetRequest._Fields> facetMap = convertFacets(facets, visibilityFilter, facetBuilders);
+        for (final FacetBuilder facetBuilder : facetBuilders) {
+            builder.addFacet(facetBuilder);
+        }
+
+        return facetMap;
+    }
+
+    static Map<String, FacetRequest._Fields> convertFacets(
+            List<Facet> facets, FilterBuilder visibilityFilter, List<FacetBuilder> facetBuilders) {
         final Map<String, FacetRequest._Fields> facetMap = new HashMap<>();
         if (facets != null) {
             for (final Facet facet : facets) {
@@ -73,12 +85,12 @@ final class ThriftToFacetConversions {
 
                 switch (facetFieldSet) {
                     case DATE_HISTOGRAM_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertDateHistorgramFacet(
                                         label, request.getDateHistogramFacet(), filterJson, visibilityFilter));
                         break;
                     case FILTER_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertFilterFacet(
                                         label, request.getFilterFacet(), filterJson, visibilityFilter));
                         break;
@@ -86,13 +98,13 @@ final class ThriftToFacetConversions {
                         final HistogramFacet hf = facet.getFacet().getHistogramFacet();
                         switch (hf.getFacetValue().getSetField()) {
                             case FACET_FIELD:
-                                builder.addFacet(convertHistogramFacet(label, hf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertHistogramFacet(label, hf, filterJson, visibilityFilter));
                                 break;
                             case KEY_VALUE_FACET:
-                                builder.addFacet(convertHistogramFacet(label, hf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertHistogramFacet(label, hf, filterJson, visibilityFilter));
                                 break;
                             case KEY_VALUE_SCRIPT:
-                                builder.addFacet(convertHistogramScriptFacet(label, hf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertHistogramScriptFacet(label, hf, filterJson, visibilityFilter));
                                 break;
                             default:
                                 throw new IllegalArgumentException(
@@ -103,13 +115,13 @@ final class ThriftToFacetConversions {
                         final RangeFacet rf = facet.getFacet().getRangeFacet();
                         switch (rf.getField().getSetField()) {
                             case FACET_FIELD:
-                                builder.addFacet(convertRangeFacet(label, rf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertRangeFacet(label, rf, filterJson, visibilityFilter));
                                 break;
                             case KEY_VALUE_FACET:
-                                builder.addFacet(convertRangeFacet(label, rf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertRangeFacet(label, rf, filterJson, visibilityFilter));
                                 break;
                             case KEY_VALUE_SCRIPT:
-                                builder.addFacet(convertRangeScriptFacet(label, rf, filterJson, visibilityFilter));
+                                facetBuilders.add(convertRangeScriptFacet(label, rf, filterJson, visibilityFilter));
                                 break;
                             default:
                                 throw new IllegalArgumentException(
@@ -117,23 +129,23 @@ final class ThriftToFacetConversions {
                         }
                         break;
                     case STATISTICAL_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertStatisticalFacet(
                                         label, request.getStatisticalFacet(), filterJson, visibilityFilter));
                         break;
                     case TERMS_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertTermFacet(
                                         label, request.getTermsFacet(), filterJson, visibilityFilter));
                         break;
                     case TERMS_SCRIPT_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertTermScriptFacet(
                                         label, request.getTermsScriptFacet(), filterJson, visibilityFilter));
                         facetFieldSet = FacetRequest._Fields.TERMS_FACET; // Override type
                         break;
                     case TERMS_STATS_FACET:
-                        builder.addFacet(
+                        facetBuilders.add(
                                 convertTermsStatsFacet(
                                         label, request.getTermsStatsFacet(), filterJson, visibilityFilter));
                         break;
@@ -0,0 +1,331 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import static ezbake.data.elastic.common.ElasticUtils.COMPOSITE_FIELD;
+import static ezbake.data.elastic.common.ElasticUtils.PURGE_ID_FIELD;
+import static ezbake.data.elastic.common.ElasticUtils.VISIBILITY_FIELD;
+import static ezbake.thrift.ThriftUtils.serializeToBase64;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.thrift.TException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ezbake.base.thrift.AdvancedMarkings;
+import ezbake.base.thrift.Visibility;
+import ezbake.data.elastic.thrift.Document;
+import ezbake.data.elastic.thrift.IndexResponse;
+
+/**
+ * Indexes documents through a {@link BulkProcessor} so that large batches are split into bulk requests bounded by
+ * document count and size, with a bounded number of them in flight at once. Items the cluster rejects because it is
+ * overloaded are retried with exponential backoff. Responses are returned in the same order as the documents.
+ */
+final class BulkIngester {
+    static final int DEFAULT_BULK_ACTIONS = 1000;
+    static final ByteSizeValue DEFAULT_BULK_SIZE = new ByteSizeValue(5, ByteSizeUnit.MB);
+    static final int DEFAULT_CONCURRENT_REQUESTS = 2;
+    static final int DEFAULT_MAX_RETRIES = 3;
+    static final long DEFAULT_RETRY_BACKOFF_MILLIS = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIngester.class);
+
+    private static final int VISIBILITY_CACHE_SIZE = 1000;
+    private static final long BULK_TIMEOUT_MINUTES = 5;
+
+    private final Client client;
+    private final String indexName;
+    private final int bulkActions;
+    private final ByteSizeValue bulkSize;
+    private final int concurrentRequests;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+
+    // Most documents in a batch share a handful of visibilities
+    private final Cache<Visibility, String> visibilityBase64 =
+            CacheBuilder.newBuilder().maximumSize(VISIBILITY_CACHE_SIZE).build();
+
+    BulkIngester(Client client, String indexName) {
+        this(
+                client, indexName, DEFAULT_BULK_ACTIONS, DEFAULT_BULK_SIZE, DEFAULT_CONCURRENT_REQUESTS,
+                DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BACKOFF_MILLIS);
+    }
+
+    BulkIngester(
+            Client client, String indexName, int bulkActions, ByteSizeValue bulkSize, int concurrentRequests,
+            int maxRetries, long retryBackoffMillis) {
+        this.client = client;
+        this.indexName = indexName;
+        this.bulkActions = bulkActions;
+        this.bulkSize = bulkSize;
+        this.concurrentRequests = concurrentRequests;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    /**
+     * Indexes the given documents.
+     *
+     * @param documents documents to index
+     * @return one response per document, in the same order as the documents. Items still in flight when waiting for
+     * the bulk requests times out have a version of {@link DocumentStore#UNKNOWN_VERSION}.
+     */
+    List<IndexResponse> index(List<Document> documents) {
+        final IndexResponse[] responses = new IndexResponse[documents.size()];
+
+        List<Integer> pending = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            pending.add(i);
+        }
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                if (attempt > maxRetries || !backoff(attempt)) {
+                    for (final int position : pending) {
+                        logger.warn(
+                                "Indexing was rejected on an object ({}, {}) after {} attempts",
+                                documents.get(position).get_id(), documents.get(position).get_type(), attempt);
+                        responses[position] = convertElasticResponse(
+                                documents.get(position).get_id(), documents.get(position).get_type(), -1, false);
+                    }
+                    break;
+                }
+                logger.debug("Retrying {} rejected bulk items, attempt {}", pending.size(), attempt);
+            }
+
+            pending = execute(documents, pending, responses);
+        }
+
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Sends the pending documents through a bulk processor and fills in their responses. Each request is built just
+     * before the processor takes it and dropped once it is answered, so only the requests in flight are held at once.
+     *
+     * @return positions of the items that were rejected and should be retried
+     */
+    private List<Integer> execute(
+            final List<Document> documents, List<Integer> pending, final IndexResponse[] responses) {
+        final Map<ActionRequest, Integer> positions =
+                Collections.synchronizedMap(new IdentityHashMap<ActionRequest, Integer>());
+        final List<Integer> rejected = new ArrayList<>();
+        // Bulk callbacks write results while holding the responses lock, and stop once this call is done waiting
+        final AtomicBoolean finished = new AtomicBoolean();
+        final BulkProcessor processor = BulkProcessor.builder(
+                client, new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                        logger.trace(
+                                "Sending bulk request {} with {} items ({} bytes)", executionId,
+                                request.numberOfActions(), request.estimatedSizeInBytes());
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        final List<ActionRequest> items = request.requests();
+                        synchronized (responses) {
+                            if (finished.get()) {
+                                logger.warn("Ignoring bulk request {} that completed after the timeout", executionId);
+                                return;
+                            }
+
+                            for (final BulkItemResponse item : response) {
+                                final int position = positions.remove(items.get(item.getItemId()));
+                                if (!item.isFailed()) {
+                                    final org.elasticsearch.action.index.IndexResponse ir = item.getResponse();
+                                    responses[position] =
+                                            convertElasticResponse(ir.getId(), ir.getType(), ir.getVersion(), true);
+                                } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                                    rejected.add(position);
+                                } else {
+                                    logger.warn(
+                                            "Indexing failed on an object ({}, {}): {}", item.getId(), item.getType(),
+                                            item.getFailureMessage());
+                                    responses[position] =
+                                            convertElasticResponse(item.getId(), item.getType(), -1, false);
+                                }
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        final boolean retry = ExceptionsHelper.unwrapCause(failure) instanceof
+                                EsRejectedExecutionException;
+                        if (!retry) {
+                            logger.warn("Bulk request {} failed", executionId, failure);
+                        }
+
+                        synchronized (responses) {
+                            if (finished.get()) {
+                                return;
+                            }
+
+                            for (final ActionRequest item : request.requests()) {
+                                final int position = positions.remove(item);
+                                if (retry) {
+                                    rejected.add(position);
+                                } else {
+                                    responses[position] = convertElasticResponse(
+                                            documents.get(position).get_id(), documents.get(position).get_type(), -1,
+                                            false);
+                                }
+                            }
+                        }
+                    }
+                }).setBulkActions(bulkActions).setBulkSize(bulkSize).setConcurrentRequests(concurrentRequests)
+                .build();
+
+        for (final int position : pending) {
+            final Document document = documents.get(position);
+            final String source = addPlatformFields(document);
+            if (source == null) {
+                synchronized (responses) {
+                    responses[position] = convertElasticResponse(document.get_id(), document.get_type(), -1, false);
+                }
+                continue;
+            }
+
+            final IndexRequest request =
+                    client.prepareIndex(indexName, document.get_type(), document.get_id()).setSource(source).request();
+            positions.put(request, position);
+            processor.add(request);
+        }
+
+        try {
+            if (!processor.awaitClose(BULK_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                logger.warn("Timed out waiting for bulk requests to complete");
+            }
+        } catch (final InterruptedException e) {
+            logger.warn("Interrupted while waiting for bulk requests to complete");
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (responses) {
+            finished.set(true);
+
+            // Anything without a response by now (timeout or interrupt) may still be written, so it is reported as
+            // unknown rather than failed, and not retried
+            int unknown = 0;
+            for (final int position : pending) {
+                if (responses[position] == null && !rejected.contains(position)) {
+                    responses[position] = convertElasticResponse(
+                            documents.get(position).get_id(), documents.get(position).get_type(),
+                            DocumentStore.UNKNOWN_VERSION, false);
+                    unknown++;
+                }
+            }
+            if (unknown > 0) {
+                logger.warn("Outcome of {} bulk items is unknown, they may or may not have been indexed", unknown);
+            }
+
+            Collections.sort(rejected);
+            return new ArrayList<>(rejected);
+        }
+    }
+
+    private boolean backoff(int attempt) {
+        try {
+            Thread.sleep(retryBackoffMillis << (attempt - 1));
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private String addPlatformFields(Document document) {
+        // I don't like string manipulation here but I also don't like that GSON and other libraries
+        // mess with what was passed in (int -> double etc).
+        final String original = document.get_jsonObject();
+        final String visBase64 = getVisibilityBase64(document);
+        if (visBase64 == null) {
+            return null;
+        }
+
+        final StringBuilder source = new StringBuilder(original.length() + visBase64.length() + 64);
+        source.append(original, 0, original.lastIndexOf('}'));
+        source.append(",\"").append(VISIBILITY_FIELD).append("\" : \"").append(visBase64).append('"');
+
+        // Index the provenance of the document so purges can find it without reading every visibility. The composite
+        // flag is always written, which tells purges the document doesn't predate these fields.
+        final Visibility visibility = document.getVisibility();
+        boolean composite = false;
+        if (visibility.isSetAdvancedMarkings() && visibility.getAdvancedMarkings().isSetId()) {
+            final AdvancedMarkings markings = visibility.getAdvancedMarkings();
+            source.append(",\"").append(PURGE_ID_FIELD).append("\" : ").append(markings.getId());
+            composite = markings.isComposite();
+        }
+        source.append(",\"").append(COMPOSITE_FIELD).append("\" : ").append(composite);
+
+        return source.append('}').toString();
+    }
+
+    private String getVisibilityBase64(Document document) {
+        final Visibility visibility = document.getVisibility();
+        if (visibility == null) {
+            logger.error("Document {} failed to parse! It has no visibility", document.get_id());
+            return null;
+        }
+
+        String base64 = visibilityBase64.getIfPresent(visibility);
+        if (base64 == null) {
+            try {
+                base64 = serializeToBase64(visibility);
+            } catch (final TException e) {
+                logger.error(
+                        "Document {} failed to parse! There was an error converting the visibility to base64: {}",
+                        document.get_id(), visibility, e);
+
+                return null;
+            }
+            visibilityBase64.put(visibility.deepCopy(), base64);
+        }
+        return base64;
+    }
+
+    private static IndexResponse convertElasticResponse(String id, String type, long version, boolean success) {
+        final IndexResponse result = new IndexResponse();
+        result.set_id(id);
+        result.set_type(type);
+        result.set_version(version);
+        result.setSuccess(success);
+        return result;
+    }
+}
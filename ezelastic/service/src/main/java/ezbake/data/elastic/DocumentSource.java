@@ -0,0 +1,88 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import static ezbake.data.elastic.common.ElasticUtils.COMPOSITE_FIELD;
+import static ezbake.data.elastic.common.ElasticUtils.PURGE_ID_FIELD;
+import static ezbake.data.elastic.common.ElasticUtils.VISIBILITY_FIELD;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * Document source as stored in the index, split into the JSON handed back to callers and the serialized visibility.
+ * The stored source is streamed into the new JSON, skipping the platform fields, so a document is never parsed into a
+ * map and encoded again.
+ */
+final class DocumentSource {
+    private final String json;
+    private final String visibilityBase64;
+
+    private DocumentSource(String json, String visibilityBase64) {
+        this.json = json;
+        this.visibilityBase64 = visibilityBase64;
+    }
+
+    /**
+     * @param source source bytes of a search hit or get response, possibly compressed
+     * @return the source without platform fields and the serialized visibility that was removed from it
+     * @throws IOException if the source could not be parsed
+     */
+    static DocumentSource parse(BytesReference source) throws IOException {
+        String visibilityBase64 = null;
+        try (XContentParser parser = XContentHelper.createParser(source)) {
+            final XContentBuilder json = XContentFactory.jsonBuilder();
+            XContentParser.Token token = parser.nextToken();
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new IOException("Document source is not an object");
+            }
+
+            json.startObject();
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                final String field = parser.currentName();
+                token = parser.nextToken();
+                if (VISIBILITY_FIELD.equals(field)) {
+                    visibilityBase64 = token == XContentParser.Token.VALUE_NULL ? null : parser.text();
+                } else if (PURGE_ID_FIELD.equals(field) || COMPOSITE_FIELD.equals(field)) {
+                    parser.skipChildren();
+                } else {
+                    json.field(field);
+                    json.copyCurrentStructure(parser);
+                }
+            }
+            json.endObject();
+
+            return new DocumentSource(json.string(), visibilityBase64);
+        }
+    }
+
+    /**
+     * @return JSON of the source without platform fields
+     */
+    String getJson() {
+        return json;
+    }
+
+    /**
+     * @return serialized visibility of the document, or null if the source did not contain it
+     */
+    String getVisibilityBase64() {
+        return visibilityBase64;
+    }
+}
@@ -34,15 +34,34 @@ import ezbake.data.elastic.thrift.UpdateOptions;
 import ezbake.data.elastic.thrift.UpdateScript;
 
 public interface DocumentStore {
+    /**
+     * Version of an unsuccessful index response whose outcome is unknown, because the store stopped waiting for the
+     * write before it was answered. The document may or may not have been written, so callers should look it up
+     * before putting it again.
+     */
+    long UNKNOWN_VERSION = -2;
+
     /**
      * For each of the supplied documents, if no document exists with the supplied id (or if no id was specified), the
      * document will be added to specified index/database with the supplied type/collection.
      *
      * @param documents The documents to be stored in the document repository.
-     * @return Index responses for the puts on the given documents
+     * @return Index responses for the puts on the given documents. Failed puts have a version of -1, and puts with an
+     * unknown outcome have a version of {@link #UNKNOWN_VERSION}.
      */
     List<IndexResponse> put(List<Document> documents);
 
+    /**
+     * Same as {@link #put(List)}, but lets the caller decide whether to wait until the documents are visible to
+     * searches before returning.
+     *
+     * @param documents The documents to be stored in the document repository.
+     * @param waitForVisibility Whether to refresh before returning. If false, the documents become visible with the
+     * next refresh.
+     * @return Index responses for the puts on the given documents
+     */
+    List<IndexResponse> put(List<Document> documents, boolean waitForVisibility);
+
     /**
      * Updates a document using a script or using a document.
      *
@@ -56,6 +75,17 @@ public interface DocumentStore {
     IndexResponse update(DocumentIdentifier id, UpdateScript script, UpdateOptions options, EzSecurityToken token)
             throws TException;
 
+    /**
+     * Same as {@link #update(DocumentIdentifier, UpdateScript, UpdateOptions, EzSecurityToken)}, but lets the caller
+     * decide whether to wait until the update is visible to searches before returning.
+     *
+     * @param waitForVisibility Whether to refresh before returning. If false, the update becomes visible with the next
+     * refresh.
+     */
+    IndexResponse update(
+            DocumentIdentifier id, UpdateScript script, UpdateOptions options, EzSecurityToken token,
+            boolean waitForVisibility) throws TException;
+
     /**
      * Retrieves a collection of documents from the repository using the ids and if supplied, index/database and
      * type/collection.
@@ -118,6 +148,46 @@ public interface DocumentStore {
             String facetsJson, int offset, short pageSize, HighlightRequest highlight, EzSecurityToken userToken)
             throws TException;
 
+    /**
+     * Opens a scroll over every document matching the query that the user can read. Unlike paging with an offset,
+     * each following page costs the same no matter how far into the results it is, so this is meant for exporting
+     * large result sets. Documents are returned in no particular order.
+     *
+     * @param query Either a lucene string based query or a json query representation specific to the DocumentStore
+     * implementation.
+     * @param type Used to limit the scope of the scroll. If no type/collection is supplied the scroll will be over the
+     * entire index.
+     * @param fields The subset of fields with the document that should be returned, or null for entire documents.
+     * @param pageSize Number of documents to return per page. This is split across the shards of the index, so a
+     * page may hold up to one more document per shard, and fewer once some shards run out of matches.
+     * @param userToken User's security token with user information used for auditing and verifying the user has access
+     * to the requested data.
+     * @return The first page of documents
+     * @throws ezbake.data.elastic.thrift.MalformedQueryException
+     * @throws org.apache.thrift.TException
+     */
+    ScrollPage openScroll(String query, String type, Set<String> fields, int pageSize, EzSecurityToken userToken)
+            throws TException;
+
+    /**
+     * Returns the next page of an open scroll. Once a page is returned as finished the scroll is closed.
+     *
+     * @param scrollId ID of the scroll from the previous page
+     * @param userToken Security token of the user that opened the scroll.
+     * @return The next page of documents
+     * @throws org.apache.thrift.TException if the scroll does not exist, has expired, or belongs to someone else
+     */
+    ScrollPage nextScroll(String scrollId, EzSecurityToken userToken) throws TException;
+
+    /**
+     * Closes a scroll before all of its pages have been read. Scrolls that are not read from also expire on their own.
+     *
+     * @param scrollId ID of the scroll to close
+     * @param userToken Security token of the user that opened the scroll.
+     * @throws org.apache.thrift.TException if the scroll does not exist, has expired, or belongs to someone else
+     */
+    void closeScroll(String scrollId, EzSecurityToken userToken) throws TException;
+
     /**
      * Deletes records that match the supplied ids and type. If not type is supplied all records with a matching id to
      * which the user has access will be removed.
@@ -132,6 +202,16 @@ public interface DocumentStore {
      */
     void delete(Set<String> ids, String type, EzSecurityToken userToken) throws TException;
 
+    /**
+     * Same as {@link #delete(Set, String, EzSecurityToken)}, but lets the caller decide whether to wait until the
+     * deletes are visible to searches before returning.
+     *
+     * @param waitForVisibility Whether to refresh before returning. If false, the deletes become visible with the next
+     * refresh.
+     */
+    void delete(Set<String> ids, String type, EzSecurityToken userToken, boolean waitForVisibility)
+            throws TException;
+
     /**
      * Deletes all objects matching the given query and type from the index given the user has the proper
      * authorizations.
@@ -147,6 +227,15 @@ public interface DocumentStore {
      */
     void delete(String query, String type, EzSecurityToken userToken) throws TException;
 
+    /**
+     * Same as {@link #delete(String, String, EzSecurityToken)}, but lets the caller decide whether to wait until the
+     * deletes are visible to searches before returning.
+     *
+     * @param waitForVisibility Whether to refresh before returning. If false, the deletes become visible with the next
+     * refresh.
+     */
+    void delete(String query, String type, EzSecurityToken userToken, boolean waitForVisibility) throws TException;
+
     /**
      * Returns a count of the matches across the supplied types based on the query. If no query is provided, the count
      * will be a total of all records within the supplied index/type constraints. If a set of filterIds is provided, the
@@ -17,15 +17,13 @@ package ezbake.data.elastic;
 import static org.elasticsearch.action.search.SearchType.SCAN;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
+import static ezbake.data.elastic.common.ElasticUtils.COMPOSITE_FIELD;
 import static ezbake.data.elastic.common.ElasticUtils.PERCOLATOR_TYPE;
+import static ezbake.data.elastic.common.ElasticUtils.PURGE_ID_FIELD;
 import static ezbake.data.elastic.common.ElasticUtils.VISIBILITY_FIELD;
-import static ezbake.data.elastic.common.ElasticUtils.addFacetsToSearch;
-import static ezbake.data.elastic.common.ElasticUtils.convertFieldSort;
-import static ezbake.data.elastic.common.ElasticUtils.convertGeoSort;
 import static ezbake.data.elastic.common.ElasticUtils.getFacetsFromResult;
 import static ezbake.data.elastic.common.ElasticUtils.getVisibilityFilter;
 import static ezbake.data.elastic.common.ElasticUtils.isClusterHealthy;
-import static ezbake.data.elastic.common.ElasticUtils.refreshIndex;
 import static ezbake.thrift.ThriftUtils.serializeToBase64;
 
 import java.io.IOException;
@@ -39,21 +37,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.thrift.TException;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.count.CountRequestBuilder;
 import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.percolate.MultiPercolateRequestBuilder;
 import org.elasticsearch.action.percolate.MultiPercolateResponse;
 import org.elasticsearch.action.percolate.PercolateRequestBuilder;
 import org.elasticsearch.action.percolate.PercolateResponse;
 import org.elasticsearch.action.percolate.PercolateSourceBuilder;
+import org.elasticsearch.action.search.ClearScrollResponse;
 import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -61,21 +66,24 @@ import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.text.Text;
-import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.ScriptFilterBuilder;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.indices.IndexMissingException;
 import static org.elasticsearch.script.ScriptService.ScriptType;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
 import org.elasticsearch.search.highlight.HighlightField;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -83,12 +91,21 @@ import org.json.simple.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import ezbake.base.thrift.AdvancedMarkings;
 import ezbake.base.thrift.Authorizations;
 import ezbake.base.thrift.CancelStatus;
 import ezbake.base.thrift.EzSecurityToken;
@@ -112,23 +129,93 @@ import ezbake.data.elastic.thrift.SearchResult;
 import ezbake.data.elastic.thrift.SortCriteria;
 import ezbake.data.elastic.thrift.UpdateOptions;
 import ezbake.data.elastic.thrift.UpdateScript;
+import ezbake.security.permissions.PermissionEvaluator;
 import ezbake.thrift.ThriftUtils;
 
 @SuppressWarnings("ParameterHidesMemberVariable")
 public final class ElasticClient implements DocumentStore {
     public static final short MAX_PAGE_SIZE = Short.MAX_VALUE;
 
-    private static final String PURGE_INDEX = "active_purges";
-    private static final String PURGE_TYPE = "purge";
-    private static final String PURGE_SCROLL_DURATION = "5m"; // 5 minutes
+    private static final String PURGE_ID_AGGREGATION = "purge_ids";
+    // Where purges kept their scroll IDs before they stopped keeping state between batches
+    private static final String LEGACY_PURGE_INDEX = "active_purges";
+    private static final String LEGACY_PURGE_TYPE = "purge";
+
+    // Building the visibility filter for a search
+    private static final String VISIBILITY_FILTER_TIMER_NAME =
+            MetricRegistry.name(ElasticClient.class, "VISIBILITY_FILTER");
+    // Checking the visibility of one document fetched by ID
+    private static final String DOCUMENT_VISIBILITY_TIMER_NAME =
+            MetricRegistry.name(ElasticClient.class, "DOCUMENT_VISIBILITY");
+    // Checking the visibilities of the percolators matched by one percolate call
+    private static final String PERCOLATOR_VISIBILITY_TIMER_NAME =
+            MetricRegistry.name(ElasticClient.class, "PERCOLATOR_VISIBILITY");
+    private static final String BULK_ITEM_FAILURES_METER_NAME =
+            MetricRegistry.name(ElasticClient.class, "BULK_ITEM_FAILURES");
+
+    private static final String SEARCH_TEMPLATE_HITS_METER_NAME =
+            MetricRegistry.name(ElasticClient.class, "SEARCH_TEMPLATE_CACHE", "hits");
+    private static final String SEARCH_TEMPLATE_MISSES_METER_NAME =
+            MetricRegistry.name(ElasticClient.class, "SEARCH_TEMPLATE_CACHE", "misses");
+    private static final String SEARCH_TEMPLATE_HIT_RATE_GAUGE_NAME =
+            MetricRegistry.name(ElasticClient.class, "SEARCH_TEMPLATE_CACHE", "hitRate");
+
+    private static final int PERMISSION_EVALUATOR_CACHE_SIZE = 1000;
+    private static final int SEARCH_TEMPLATE_CACHE_SIZE = 1000;
+    private static final int VISIBILITY_CACHE_SIZE = 10000;
+    private static final int PERCOLATOR_VISIBILITY_CACHE_SIZE = 10000;
+    private static final long PERCOLATOR_VISIBILITY_EXPIRE_MINUTES = 60;
+    private static final Set<Permission> READ_PERMISSIONS = EnumSet.of(Permission.READ);
+    private static final String[] VISIBILITY_ONLY = {VISIBILITY_FIELD};
+    private static final Set<String> PROVENANCE_FIELDS = ImmutableSet.of(PURGE_ID_FIELD, COMPOSITE_FIELD);
+
+    private static final String SCROLL_KEEP_ALIVE = "5m"; // 5 minutes
+    private static final long SCROLL_KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_OPEN_SCROLLS = 1000;
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticClient.class);
     private final String indexName; // This exists to decouple the index from the application name
     private final String applicationName;
     private final int version;
     private Client client;
+    private boolean sharedClient; // Whether the client came from TransportClientFactory and must be released
     private Gson gson;
     private boolean forceRefreshOnInsert;
+    private boolean returnVisibility = true;
+    private RefreshCoordinator refreshCoordinator;
+    private IndexMetadataCache indexMetadata;
+    private BulkIngester bulkIngester;
+    private MetricRegistry metrics = new MetricRegistry();
+
+    // ID lookups check visibility client-side, so keep the evaluators and deserialized visibilities around
+    private final Cache<Authorizations, PermissionEvaluator> permissionEvaluators =
+            CacheBuilder.newBuilder().maximumSize(PERMISSION_EVALUATOR_CACHE_SIZE).build();
+    private final Cache<String, Visibility> visibilities =
+            CacheBuilder.newBuilder().maximumSize(VISIBILITY_CACHE_SIZE).build();
+
+    // Dashboards repeat the same searches with the same authorizations, so only paging differs between them
+    private final Cache<SearchTemplate.Key, SearchTemplate> searchTemplates =
+            CacheBuilder.newBuilder().maximumSize(SEARCH_TEMPLATE_CACHE_SIZE).build();
+
+    // Percolator visibilities for post-filtering percolate matches, updated by putPercolator and deletePercolator.
+    // Post-filtered percolation also filters on the visibility indexed with each percolator, so an entry left stale
+    // by another service instance can only drop a match, never let one through. Entries expire to bound that.
+    private final Cache<String, Visibility> percolatorVisibilities =
+            CacheBuilder.newBuilder().maximumSize(PERCOLATOR_VISIBILITY_CACHE_SIZE)
+                    .expireAfterWrite(PERCOLATOR_VISIBILITY_EXPIRE_MINUTES, TimeUnit.MINUTES).build();
+
+    // Open scrolls by the ID handed to callers. Elasticsearch drops its side after the keep alive as well, but
+    // clearing it when we forget a scroll frees the search contexts sooner.
+    private final Cache<String, ScrollContext> scrolls =
+            CacheBuilder.newBuilder().maximumSize(MAX_OPEN_SCROLLS)
+                    .expireAfterAccess(SCROLL_KEEP_ALIVE_MINUTES, TimeUnit.MINUTES)
+                    .removalListener(
+                            new RemovalListener<String, ScrollContext>() {
+                                @Override
+                                public void onRemoval(RemovalNotification<String, ScrollContext> notification) {
+                                    clearScroll(notification.getValue());
+                                }
+                            }).build();
 
     public ElasticClient() {
         indexName = null;
@@ -138,34 +225,38 @@ public final class ElasticClient implements DocumentStore {
 
     public ElasticClient(
             String hosts, int port, String cluster, String applicationName, boolean instantRefresh, int version) {
-        final TransportClient transportClient =
-                new TransportClient(ImmutableSettings.settingsBuilder().put("cluster.name", cluster).build());
-
-        for (final String host : hosts.split(",")) {
-            transportClient.addTransportAddress(new InetSocketTransportAddress(host, port));
-        }
-
-        this.client = transportClient;
-        this.indexName = applicationName;
-        this.applicationName = applicationName;
-        this.version = version;
-        gson = new Gson();
+        this(
+                hosts, port, cluster, applicationName, instantRefresh, version,
+                RefreshCoordinator.DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
 
-        if (instantRefresh) {
-            logger.warn(
-                    "Starting ElasticClient with forced refresh on inserts. This is only recommended for "
-                            + "controlled environments, high throughput performance will suffer.");
-            forceRefreshOnInsert = true;
-        }
-        applyDefaultMapping();
+    public ElasticClient(
+            String hosts, int port, String cluster, String applicationName, boolean instantRefresh, int version,
+            long refreshIntervalMillis) {
+        this(
+                TransportClientFactory.getClient(hosts, port, cluster), applicationName, instantRefresh, version,
+                refreshIntervalMillis);
+        sharedClient = true;
     }
 
     public ElasticClient(Client client, String applicationName, boolean instantRefresh, int version) {
+        this(client, applicationName, instantRefresh, version, RefreshCoordinator.DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param refreshIntervalMillis minimum time between refreshes requested by writes that don't need to wait for
+     * their changes to become visible to searches
+     */
+    public ElasticClient(
+            Client client, String applicationName, boolean instantRefresh, int version, long refreshIntervalMillis) {
         this.client = client;
         this.indexName = applicationName;
         this.applicationName = applicationName;
         this.version = version;
         gson = new Gson();
+        refreshCoordinator = new RefreshCoordinator(client, indexName, refreshIntervalMillis);
+        indexMetadata = new IndexMetadataCache(client, IndexMetadataCache.DEFAULT_TTL_MILLIS);
+        bulkIngester = new BulkIngester(client, indexName);
 
         if (instantRefresh) {
             logger.warn(
@@ -176,11 +267,70 @@ public final class ElasticClient implements DocumentStore {
         applyDefaultMapping();
     }
 
+    /**
+     * Releases the shared transport client if this instance obtained it from {@link TransportClientFactory}. Clients
+     * passed in by the caller stay open.
+     */
+    public void close() {
+        if (sharedClient) {
+            sharedClient = false;
+            TransportClientFactory.releaseClient(client);
+        }
+    }
+
     public static ElasticClient getInstance(
             String hostname, int port, String cluster, String applicationName, boolean instantRefresh, int version) {
         return new ElasticClient(hostname, port, cluster, applicationName, instantRefresh, version);
     }
 
+    public static ElasticClient getInstance(
+            String hostname, int port, String cluster, String applicationName, boolean instantRefresh, int version,
+            long refreshIntervalMillis) {
+        return new ElasticClient(
+                hostname, port, cluster, applicationName, instantRefresh, version, refreshIntervalMillis);
+    }
+
+    /**
+     * Changes how puts are split into bulk requests.
+     *
+     * @param bulkActions maximum number of documents in a bulk request
+     * @param bulkSize maximum size of a bulk request
+     * @param concurrentRequests maximum number of bulk requests in flight for a single put
+     * @param maxRetries number of times to retry documents the cluster rejected because it was overloaded
+     * @param retryBackoffMillis wait before the first retry, doubled for each retry after that
+     */
+    public void setBulkOptions(
+            int bulkActions, ByteSizeValue bulkSize, int concurrentRequests, int maxRetries, long retryBackoffMillis) {
+        bulkIngester = new BulkIngester(
+                client, indexName, bulkActions, bulkSize, concurrentRequests, maxRetries, retryBackoffMillis);
+    }
+
+    /**
+     * Sets whether returned documents carry their visibility. Callers that only need the document contents can turn
+     * this off to skip deserializing and copying the visibility of every result, in which case documents have an
+     * empty visibility. Visibility is still checked when deciding which documents to return.
+     *
+     * @param returnVisibility whether returned documents should carry their visibility
+     */
+    public void setReturnVisibility(boolean returnVisibility) {
+        this.returnVisibility = returnVisibility;
+    }
+
+    public void setMetricRegistry(final MetricRegistry metrics) {
+        this.metrics = metrics;
+
+        metrics.remove(SEARCH_TEMPLATE_HIT_RATE_GAUGE_NAME);
+        metrics.register(
+                SEARCH_TEMPLATE_HIT_RATE_GAUGE_NAME, new RatioGauge() {
+                    @Override
+                    protected Ratio getRatio() {
+                        final long hits = metrics.meter(SEARCH_TEMPLATE_HITS_METER_NAME).getCount();
+                        final long misses = metrics.meter(SEARCH_TEMPLATE_MISSES_METER_NAME).getCount();
+                        return Ratio.of(hits, hits + misses);
+                    }
+                });
+    }
+
     private static Map<String, HighlightResult> getHighlightsFromResult(SearchHits hits) {
         final HashMap<String, HighlightResult> highlights = new HashMap<>();
         for (final SearchHit hit : hits) {
@@ -238,33 +388,6 @@ public final class ElasticClient implements DocumentStore {
         return QueryBuilders.queryString(query);
     }
 
-    private static IndexResponse convertElasticResponse(String id, String type, long version, boolean success) {
-        final IndexResponse result = new IndexResponse();
-        result.set_id(id);
-        result.set_type(type);
-        result.set_version(version);
-        result.setSuccess(success);
-        return result;
-    }
-
-    private static String addPlatformFields(String docId, String original, Visibility vis) {
-        // I don't like string manipulation here but I also don't like that GSON and other libraries
-        // mess with what was passed in (int -> double etc).
-        final String original1 = original.substring(0, original.lastIndexOf('}'));
-        final String visBase64;
-        try {
-            visBase64 = serializeToBase64(vis);
-        } catch (final TException e) {
-            logger.error(
-                    "Document {} failed to parse! There was an error converting the visibility to base64: {}", docId,
-                    vis, e);
-
-            return null;
-        }
-
-        return original1 + ",\"" + VISIBILITY_FIELD + "\" : \"" + visBase64 + '"' + '}';
-    }
-
     @SuppressWarnings("unchecked")
     private static void addVisibilityFilter(PercolateQuery query, Authorizations authorizations) throws TException {
         // Set visibility filter
@@ -303,40 +426,24 @@ public final class ElasticClient implements DocumentStore {
 
     @Override
     public List<IndexResponse> put(List<Document> documents) {
-        final Stopwatch watch = LoggingUtils.createStopWatch();
-        final List<IndexResponse> results = new ArrayList<>();
-        final BulkRequestBuilder bulkRequest = client.prepareBulk();
-
-        for (final Document document : documents) {
-            final String original = document.get_jsonObject();
-            final String source = addPlatformFields(document.get_id(), original, document.getVisibility());
-            if (source != null) {
-                bulkRequest.add(
-                        client.prepareIndex(indexName, document.get_type(), document.get_id()).setSource(
-                                source));
-            }
-        }
+        return put(documents, forceRefreshOnInsert);
+    }
 
-        for (final BulkItemResponse response : bulkRequest.get()) {
-            final IndexResponse indexResponse;
-            if (response.isFailed()) {
-                final BulkItemResponse.Failure failure = response.getFailure();
-                logger.warn(
-                        "Indexing failed on an object ({}, {}): {}", response.getId(), response.getType(),
-                        response.getFailureMessage());
-                indexResponse = convertElasticResponse(failure.getId(), failure.getType(), -1, false);
-            } else {
-                final org.elasticsearch.action.index.IndexResponse ir = response.getResponse();
-                indexResponse = convertElasticResponse(ir.getId(), ir.getType(), ir.getVersion(), true);
+    @Override
+    public List<IndexResponse> put(List<Document> documents, boolean waitForVisibility) {
+        final Stopwatch watch = LoggingUtils.createStopWatch();
+        final List<IndexResponse> results = bulkIngester.index(documents);
+        for (final IndexResponse result : results) {
+            if (!result.isSuccess()) {
+                metrics.meter(BULK_ITEM_FAILURES_METER_NAME).mark();
             }
-            results.add(indexResponse);
         }
 
         LoggingUtils.stopAndLogStopWatch(logger, watch, "Put Documents");
 
-        if (forceRefreshOnInsert) {
+        if (waitForVisibility) {
             logger.trace("Forcing index refresh");
-            forceIndexRefresh();
+            refreshCoordinator.refreshNow();
         }
 
         return results;
@@ -346,6 +453,13 @@ public final class ElasticClient implements DocumentStore {
     public IndexResponse update(
             DocumentIdentifier id, UpdateScript script, UpdateOptions options, EzSecurityToken token)
             throws TException {
+        return update(id, script, options, token, forceRefreshOnInsert);
+    }
+
+    @Override
+    public IndexResponse update(
+            DocumentIdentifier id, UpdateScript script, UpdateOptions options, EzSecurityToken token,
+            boolean waitForVisibility) throws TException {
         // Ensure we can see the ID
         ensureVisible(id, token);
 
@@ -356,7 +470,7 @@ public final class ElasticClient implements DocumentStore {
         }
 
         final UpdateRequestBuilder updateRequest =
-                client.prepareUpdate(indexName, id.getType(), id.getId()).setRefresh(true);
+                client.prepareUpdate(indexName, id.getType(), id.getId()).setRefresh(waitForVisibility);
 
         updateRequest.setScript(script.getScript(), ScriptType.INLINE);
         if (script.isSetParameters()) {
@@ -368,27 +482,35 @@ public final class ElasticClient implements DocumentStore {
         updateRequest.setRetryOnConflict(options.getRetryCount());
 
         final UpdateResponse response = updateRequest.get();
+        if (!waitForVisibility) {
+            refreshCoordinator.requestRefresh();
+        }
+
         return new IndexResponse().set_id(response.getId()).set_type(response.getType())
                 .set_version(response.getVersion()).setSuccess(true);
     }
 
     @Override
     public List<Document> get(Set<String> ids, String type, EzSecurityToken userToken) throws TException {
-        final String idQuery;
-        idQuery = QueryBuilders.idsQuery().addIds(ids.toArray(new String[ids.size()])).toString();
-        return get(idQuery, type, null, null, null, null, 0, MAX_PAGE_SIZE, null, userToken).getMatchingDocuments();
+        return getByIds(ids, type, null, READ_PERMISSIONS, returnVisibility, userToken);
     }
 
     @Override
     public Document get(String id, String type, Set<String> fields, EzSecurityToken userToken) throws TException {
-        final SearchResult result = get(
-                QueryBuilders.idsQuery(type).addIds(id).toString(), type, null, fields, null, null, 0, MAX_PAGE_SIZE,
-                null, userToken);
-        if (result.getMatchingDocuments().isEmpty()) {
+        String[] includes = null;
+        if (fields != null && !fields.isEmpty()) {
+            final Set<String> sourceFields = new HashSet<>(fields);
+            sourceFields.add(VISIBILITY_FIELD);
+            includes = sourceFields.toArray(new String[sourceFields.size()]);
+        }
+
+        final List<Document> result =
+                getByIds(Collections.singleton(id), type, includes, READ_PERMISSIONS, returnVisibility, userToken);
+        if (result.isEmpty()) {
             logger.error("Unable to retrieve document :: {}/{}/{}", indexName, type, id);
             return EzElasticHandler.BLANK_DOCUMENT;
         }
-        return result.getMatchingDocuments().get(0);
+        return result.get(0);
     }
 
     @Override
@@ -399,50 +521,17 @@ public final class ElasticClient implements DocumentStore {
 
         final Stopwatch watch = LoggingUtils.createStopWatch();
 
-        // Set visibility filter
-        final VisibilityFilterConfig filterConfig =
-                new VisibilityFilterConfig(VISIBILITY_FIELD, EnumSet.of(Permission.READ));
-        FilterBuilder visibilityFilter = getVisibilityFilter(userToken, filterConfig);
-
-        final SearchRequestBuilder builder = client.prepareSearch(indexName).setQuery(
-                QueryBuilders.filteredQuery(
-                        parseQuery(query), visibilityFilter));
+        final SearchTemplate template =
+                getSearchTemplate(query, sortCriteria, fields, facets, filterJson, userToken.getAuthorizations());
+        final SearchRequestBuilder builder = client.prepareSearch(indexName);
+        template.applyTo(builder);
 
         // Set type restriction
         if (!StringUtils.isEmpty(type)) {
             builder.setTypes(type);
         }
 
-        // Set field restrictions
-        if (fields != null && !fields.isEmpty()) {
-            fields.add(VISIBILITY_FIELD);
-            // Starting in ES 1.0.0 rc1 fields will not be returned if they are not leaves; we now
-            // need to filter the _source property
-            // builder.addFields(fields.toArray(new String[fields.size()]));
-            builder.setFetchSource(fields.toArray(new String[fields.size()]), null);
-        }
-
-        // Set sort criteria
-        if (sortCriteria != null && !sortCriteria.isEmpty()) {
-            for (final SortCriteria criteria : sortCriteria) {
-                if (criteria.isSet(SortCriteria._Fields.FIELD_SORT)) {
-                    builder.addSort(convertFieldSort(criteria.getFieldSort()));
-                } else {
-                    builder.addSort(convertGeoSort(criteria.getGeoSort()));
-                }
-            }
-        }
-
-        if (!StringUtils.isBlank(filterJson)) {
-            builder.setPostFilter(
-                    FilterBuilders.wrapperFilter(filterJson));
-        }
-
-        // Set facets
-        Map<String, FacetRequest._Fields> facetMap = null;
-        if (facets != null && !facets.isEmpty()) {
-            facetMap = addFacetsToSearch(facets, builder, visibilityFilter);
-        }
+        final Map<String, FacetRequest._Fields> facetMap = template.getFacetMap();
 
         // Set paging
         final short cappedPageSize = (short) Math.min(MAX_PAGE_SIZE, pageSize);
@@ -495,20 +584,130 @@ public final class ElasticClient implements DocumentStore {
         return result;
     }
 
+    @Override
+    public ScrollPage openScroll(
+            String query, String type, Set<String> fields, int pageSize, EzSecurityToken userToken)
+            throws TException {
+        final Stopwatch watch = LoggingUtils.createStopWatch();
+
+        // A scan returns up to the size from every shard, so split the page across the shards
+        final int shards = Math.max(1, indexMetadata.getShardCount(indexName));
+        final int sizePerShard = Math.max(1, (pageSize + shards - 1) / shards);
+
+        final VisibilityFilterConfig filterConfig = new VisibilityFilterConfig(VISIBILITY_FIELD, READ_PERMISSIONS);
+        final SearchRequestBuilder builder = client.prepareSearch(indexName)
+                .setQuery(QueryBuilders.filteredQuery(parseQuery(query), getVisibilityFilter(userToken, filterConfig)))
+                .setSearchType(SCAN).setScroll(SCROLL_KEEP_ALIVE).setSize(sizePerShard).setVersion(true);
+
+        if (!StringUtils.isEmpty(type)) {
+            builder.setTypes(type);
+        }
+
+        if (fields != null && !fields.isEmpty()) {
+            final Set<String> sourceFields = new HashSet<>(fields);
+            sourceFields.add(VISIBILITY_FIELD);
+            builder.setFetchSource(sourceFields.toArray(new String[sourceFields.size()]), null);
+        }
+
+        final SearchResponse response;
+        try {
+            response = builder.get();
+        } catch (final SearchPhaseExecutionException ex) {
+            throw new MalformedQueryException(query, ex.getMessage());
+        }
+
+        final String scrollId = UUID.randomUUID().toString();
+        scrolls.put(
+                scrollId, new ScrollContext(
+                        getScrollOwner(userToken), userToken.getAuthorizations(), response.getScrollId(),
+                        response.getHits().getTotalHits()));
+
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "Open Scroll");
+
+        // A scan returns no documents until the first scroll
+        return nextScroll(scrollId, userToken);
+    }
+
+    @Override
+    public ScrollPage nextScroll(String scrollId, EzSecurityToken userToken) throws TException {
+        final Stopwatch watch = LoggingUtils.createStopWatch();
+        final ScrollContext context = getScrollContext(scrollId, userToken);
+
+        final ScrollPage page;
+        synchronized (context) {
+            final SearchResponse response =
+                    client.prepareSearchScroll(context.elasticScrollId).setScroll(SCROLL_KEEP_ALIVE).get();
+            context.elasticScrollId = response.getScrollId();
+
+            final SearchHit[] hits = response.getHits().getHits();
+            final List<Document> documents = new ArrayList<>(hits.length);
+            for (final SearchHit hit : hits) {
+                documents.add(convertElasticSearchHit(hit));
+            }
+
+            final boolean finished = hits.length == 0;
+            if (finished) {
+                scrolls.invalidate(scrollId);
+            }
+            page = new ScrollPage(scrollId, context.totalHits, documents, finished);
+        }
+
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "Next Scroll");
+
+        return page;
+    }
+
+    @Override
+    public void closeScroll(String scrollId, EzSecurityToken userToken) throws TException {
+        getScrollContext(scrollId, userToken);
+        scrolls.invalidate(scrollId);
+    }
+
     @Override
     public void delete(Set<String> ids, String type, EzSecurityToken userToken) throws TException {
-        final String idQuery;
-        if (StringUtils.isEmpty(type)) {
-            idQuery = QueryBuilders.idsQuery().addIds(ids.toArray(new String[ids.size()])).toString();
-        } else {
-            idQuery = QueryBuilders.idsQuery(type).addIds(ids.toArray(new String[ids.size()])).toString();
+        delete(ids, type, userToken, forceRefreshOnInsert);
+    }
+
+    @Override
+    public void delete(Set<String> ids, String type, EzSecurityToken userToken, boolean waitForVisibility)
+            throws TException {
+        final Stopwatch watch = LoggingUtils.createStopWatch();
+
+        // Only delete what the user can see and write; the found documents also give us the type of each ID
+        final List<Document> deletable = getByIds(
+                ids, type, VISIBILITY_ONLY, EnumSet.of(Permission.READ, Permission.WRITE), false, userToken);
+
+        if (!deletable.isEmpty()) {
+            final BulkRequestBuilder bulkRequest = client.prepareBulk().setRefresh(waitForVisibility);
+            for (final Document document : deletable) {
+                bulkRequest.add(client.prepareDelete(indexName, document.get_type(), document.get_id()));
+            }
+
+            for (final BulkItemResponse response : bulkRequest.get()) {
+                if (response.isFailed()) {
+                    logger.warn(
+                            "Deleting failed on an object ({}, {}): {}", response.getId(), response.getType(),
+                            response.getFailureMessage());
+                    metrics.meter(BULK_ITEM_FAILURES_METER_NAME).mark();
+                }
+            }
+
+            if (!waitForVisibility) {
+                refreshCoordinator.requestRefresh();
+            }
         }
 
-        delete(idQuery, type, userToken);
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "Delete By IDs");
     }
 
     @Override
     public void delete(String query, String type, EzSecurityToken userToken) throws TException {
+        delete(query, type, userToken, forceRefreshOnInsert);
+    }
+
+    @Override
+    public void delete(String query, String type, EzSecurityToken userToken, boolean waitForVisibility)
+            throws TException {
         final Stopwatch watch = LoggingUtils.createStopWatch();
 
         final VisibilityFilterConfig filterConfig =
@@ -521,9 +720,8 @@ public final class ElasticClient implements DocumentStore {
             builder.setTypes(type);
         }
         builder.get();
-        // Refresh immediately on deletes
-        forceIndexRefresh();
-        LoggingUtils.stopAndLogStopWatch(logger, watch, "Delete And Refresh");
+        refreshAfterWrite(waitForVisibility);
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "Delete");
     }
 
     @Override
@@ -595,7 +793,12 @@ public final class ElasticClient implements DocumentStore {
 
         doc.set_id(query.getId());
 
+        // A failed re-registration may or may not have replaced the stored visibility, so never keep the old one
+        percolatorVisibilities.invalidate(query.getId());
         IndexResponse response = put(Collections.singletonList(doc)).get(0);
+        if (response.isSuccess()) {
+            percolatorVisibilities.put(query.getId(), query.getVisibility().deepCopy());
+        }
 
         LoggingUtils.stopAndLogStopWatch(logger, watch, "PutPercolator");
 
@@ -613,11 +816,12 @@ public final class ElasticClient implements DocumentStore {
             // filter), and Elasticsearch only deletes the percolator queries from its cache when using a direct
             // deletion.
             client.prepareDelete().setIndex(indexName).setId(id).setType(PERCOLATOR_TYPE).get();
+            percolatorVisibilities.invalidate(id);
 
-            forceIndexRefresh(); // Refresh immediately on deletes
+            refreshAfterWrite(forceRefreshOnInsert);
         }
 
-        LoggingUtils.stopAndLogStopWatch(logger, watch, "DeletePercolator And Refresh");
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "DeletePercolator");
     }
 
     @Override
@@ -628,16 +832,21 @@ public final class ElasticClient implements DocumentStore {
         final MultiPercolateRequestBuilder multiPercolate = client.prepareMultiPercolate();
         List<String> docIds = new ArrayList<>();
         int docIndex = 0;
+        final FilterBuilder percolatorFilter = postFilter ? getPercolatorVisibilityFilter(userToken) : null;
 
         for (final Document doc : docs) {
             if (doc.getPercolate() != null) {
                 JSONObject docJson = new JSONObject(doc.get_jsonObject());
                 try {
                     docJson.put(VISIBILITY_FIELD, serializeToBase64(doc.getVisibility()));
-                    multiPercolate.add(
+                    final PercolateRequestBuilder request =
                             new PercolateRequestBuilder(client).setDocumentType(doc.get_type()).setIndices(indexName)
                                     .setSize(doc.getPercolate().getMaxMatches()).setPercolateDoc(
-                                    new PercolateSourceBuilder.DocBuilder().setDoc(docJson.toString())));
+                                    new PercolateSourceBuilder.DocBuilder().setDoc(docJson.toString()));
+                    if (percolatorFilter != null) {
+                        request.setPercolateFilter(percolatorFilter);
+                    }
+                    multiPercolate.add(request);
                     docIds.add(docIndex, doc.get_id());
                     docIndex++;
                 } catch (TException e) {
@@ -683,11 +892,16 @@ public final class ElasticClient implements DocumentStore {
         final Stopwatch watch = LoggingUtils.createStopWatch();
         List<PercolateQuery> results = new ArrayList<>();
         final MultiPercolateRequestBuilder multiPercolate = client.prepareMultiPercolate();
+        final FilterBuilder percolatorFilter = postFilter ? getPercolatorVisibilityFilter(userToken) : null;
 
         for (final String id : ids) {
-            multiPercolate.add(
+            final PercolateRequestBuilder request =
                     new PercolateRequestBuilder(client).setIndices(indexName).setDocumentType(type).setSize(maxMatches)
-                            .setGetRequest(Requests.getRequest(indexName).type(type).id(id)));
+                            .setGetRequest(Requests.getRequest(indexName).type(type).id(id));
+            if (percolatorFilter != null) {
+                request.setPercolateFilter(percolatorFilter);
+            }
+            multiPercolate.add(request);
         }
 
         int docIndex = 0;
@@ -722,25 +936,27 @@ public final class ElasticClient implements DocumentStore {
 
     @Override
     public void setTypeMapping(String type, String mappingJson) {
-        final boolean indexExists = client.admin().indices().prepareExists(indexName).get().isExists();
-        if (StringUtils.isBlank(mappingJson) && indexExists) {
-            client.admin().indices().prepareDeleteMapping().setIndices(indexName).setType(type).get();
-        } else {
-            if (indexExists) {
-                client.admin().indices().preparePutMapping().setIndices(indexName).setType(type).setSource(mappingJson)
-                        .get();
-            } else {
-                client.admin().indices().prepareCreate(indexName).addMapping(type, mappingJson).get();
+        try {
+            setTypeMapping(type, mappingJson, indexExists(indexName));
+        } catch (final ElasticsearchException e) {
+            if (!isStaleIndexMetadata(e)) {
+                throw e;
             }
+            indexMetadata.invalidate();
+            setTypeMapping(type, mappingJson, indexExists(indexName));
         }
     }
 
     @Override
     public void applySettings(String settingsJson) {
-        if (client.admin().indices().prepareExists(indexName).get().isExists()) {
-            client.admin().indices().prepareUpdateSettings().setSettings(settingsJson).setIndices(indexName).get();
-        } else {
-            client.admin().indices().prepareCreate(indexName).setSettings(settingsJson).get();
+        try {
+            applySettings(settingsJson, indexExists(indexName));
+        } catch (final ElasticsearchException e) {
+            if (!isStaleIndexMetadata(e)) {
+                throw e;
+            }
+            indexMetadata.invalidate();
+            applySettings(settingsJson, indexExists(indexName));
         }
     }
 
@@ -770,119 +986,300 @@ public final class ElasticClient implements DocumentStore {
 
     @Override
     public void forceIndexRefresh() {
-        refreshIndex(client, indexName);
+        refreshCoordinator.refreshNow();
     }
 
     @Override
     public PurgeResult purge(long id, Set<Long> toPurge, int batchSize) {
         logger.info("Purging ID {} with size {} with items:\n{}", id, batchSize, toPurge);
-        final String scrollId = getScrollId(id, batchSize);
-        final SearchResponse response = client.prepareSearchScroll(scrollId).setScroll(PURGE_SCROLL_DURATION).get();
-
-        final BulkRequestBuilder bulkRequest = client.prepareBulk().setRefresh(true);
         final PurgeResult result = new PurgeResult(false);
-
         final Set<Long> purged = new HashSet<>();
         final Set<Long> unpurged = new HashSet<>();
+        result.setPurged(purged);
+        result.setUnpurged(unpurged);
+
+        if (toPurge.isEmpty()) {
+            result.setIsFinished(true);
+            return result;
+        }
+
+        final FilterBuilder purgeIdFilter = FilterBuilders.termsFilter(PURGE_ID_FIELD, toPurge);
+        final FilterBuilder compositeFilter = FilterBuilders.termFilter(COMPOSITE_FIELD, true);
+
+        // Composite items cannot be purged, only reported
+        final SearchResponse compositeResponse = client.prepareSearch(indexName)
+                .setQuery(QueryBuilders.constantScoreQuery(FilterBuilders.andFilter(purgeIdFilter, compositeFilter)))
+                .setSize(0).addAggregation(
+                        AggregationBuilders.terms(PURGE_ID_AGGREGATION).field(PURGE_ID_FIELD).size(toPurge.size()))
+                .get();
+        final Terms compositeIds = compositeResponse.getAggregations().get(PURGE_ID_AGGREGATION);
+        for (final Terms.Bucket bucket : compositeIds.getBuckets()) {
+            logger.info("Composite items cannot be purged for purge ID {}", bucket.getKey());
+            unpurged.add(bucket.getKeyAsNumber().longValue());
+        }
 
+        // Deleted items no longer match, so every call picks up where the last one left off
+        final SearchResponse response = client.prepareSearch(indexName).setQuery(
+                QueryBuilders.constantScoreQuery(
+                        FilterBuilders.andFilter(purgeIdFilter, FilterBuilders.notFilter(compositeFilter))))
+                .setSize(batchSize).setFetchSource(PURGE_ID_FIELD, null).get();
+
+        final BulkRequestBuilder bulkRequest = client.prepareBulk();
+        // Purge ID of each bulk action
+        final List<Long> bulkPurgeIds = new ArrayList<>();
         for (final SearchHit hit : response.getHits()) {
-            final SearchHitField field = hit.field(VISIBILITY_FIELD);
-            if (field == null) {
-                logger.error("Attempt to read visibility field from object {} failed.", hit.getId());
-                continue;
-            }
+            logger.info("Purging item {}/{}", hit.getType(), hit.getId());
+            bulkRequest.add(client.prepareDelete(indexName, hit.getType(), hit.getId()));
+            bulkPurgeIds.add(((Number) hit.getSource().get(PURGE_ID_FIELD)).longValue());
+        }
+        int deleted = executePurgeDeletes(bulkRequest, bulkPurgeIds, purged, unpurged);
 
-            final Visibility vis;
-            try {
-                vis = ThriftUtils.deserializeFromBase64(Visibility.class, field.getValue().toString());
-            } catch (final TException te) {
-                logger.error("Deserializing visibility during a purge of id {} failed.", hit.getId());
-                continue;
-            }
+        // Items that failed to delete match again on the next call, so stop once a batch makes no progress
+        final boolean finished = response.getHits().getHits().length < batchSize || deleted == 0;
+        if (finished) {
+            deleted += purgeLegacyDocuments(toPurge, batchSize, purged, unpurged);
+            deleteLegacyPurgeState(id);
+        }
+
+        if (deleted > 0) {
+            // The next batch must not see what was just deleted
+            refreshCoordinator.refreshNow();
+        }
+
+        result.setIsFinished(finished);
+        return result;
+    }
+
+    /**
+     * Deletes the documents indexed before the provenance fields existed that belong to a purge. They can only be
+     * matched by decoding their visibility, so the last call of every purge reads all of them until {@link
+     * #backfillProvenanceFields} has migrated the index. Documents that are kept are not written to.
+     *
+     * @return number of documents deleted
+     */
+    private int purgeLegacyDocuments(Set<Long> toPurge, int batchSize, Set<Long> purged, Set<Long> unpurged) {
+        // A scan returns up to the size from every shard, so split the batch across the shards
+        final int shards = Math.max(1, indexMetadata.getShardCount(indexName));
+        final int sizePerShard = Math.max(1, (batchSize + shards - 1) / shards);
+        SearchResponse response = client.prepareSearch(indexName).setQuery(getLegacyDocumentQuery())
+                .setSearchType(SCAN).setScroll(SCROLL_KEEP_ALIVE).setSize(sizePerShard)
+                .setFetchSource(VISIBILITY_ONLY, null).get();
+
+        final long legacyDocuments = response.getHits().getTotalHits();
+        if (legacyDocuments > 0) {
+            logger.warn(
+                    "Scanning {} documents without provenance fields for purge, run backfillProvenanceFields to "
+                            + "migrate them", legacyDocuments);
+        }
+
+        int deleted = 0;
+        try {
+            while (true) {
+                response = client.prepareSearchScroll(response.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).get();
+                if (response.getHits().getHits().length == 0) {
+                    break;
+                }
+
+                final BulkRequestBuilder bulkRequest = client.prepareBulk();
+                final List<Long> bulkPurgeIds = new ArrayList<>();
+                for (final SearchHit hit : response.getHits()) {
+                    final AdvancedMarkings markings = getLegacyMarkings(hit);
+                    if (markings == null || !toPurge.contains(markings.getId())) {
+                        continue;
+                    }
 
-            if (vis.isSetAdvancedMarkings() && vis.getAdvancedMarkings().isSetId()) {
-                final long purgeId = vis.getAdvancedMarkings().getId();
-                if (toPurge.contains(purgeId)) {
-                    if (vis.getAdvancedMarkings().isComposite()) {
+                    if (markings.isComposite()) {
                         logger.info("Composite item cannot be purged {}/{}", hit.getType(), hit.getId());
-                        unpurged.add(purgeId);
+                        unpurged.add(markings.getId());
                     } else {
                         logger.info("Purging item {}/{}", hit.getType(), hit.getId());
-                        purged.add(purgeId);
                         bulkRequest.add(client.prepareDelete(indexName, hit.getType(), hit.getId()));
+                        bulkPurgeIds.add(markings.getId());
                     }
                 }
+                deleted += executePurgeDeletes(bulkRequest, bulkPurgeIds, purged, unpurged);
             }
+        } finally {
+            client.prepareClearScroll().addScrollId(response.getScrollId()).get();
         }
 
-        if (bulkRequest.numberOfActions() > 0) {
-            bulkRequest.get();
+        return deleted;
+    }
+
+    /**
+     * Sends the deletes of a purge batch and records which purge IDs were purged and which were not.
+     *
+     * @param bulkRequest bulk request holding the deletes, which may be empty
+     * @param bulkPurgeIds purge ID of each delete in the request
+     * @return number of documents deleted
+     */
+    private int executePurgeDeletes(
+            BulkRequestBuilder bulkRequest, List<Long> bulkPurgeIds, Set<Long> purged, Set<Long> unpurged) {
+        if (bulkRequest.numberOfActions() == 0) {
+            return 0;
         }
 
-        result.setPurged(purged);
-        result.setUnpurged(unpurged);
-        if (response.getHits().getHits().length == 0) {
-            result.setIsFinished(true);
+        int deleted = 0;
+        for (final BulkItemResponse item : bulkRequest.get()) {
+            final long purgeId = bulkPurgeIds.get(item.getItemId());
+            if (item.isFailed()) {
+                logger.warn(
+                        "Purging failed on an object ({}, {}): {}", item.getId(), item.getType(),
+                        item.getFailureMessage());
+                metrics.meter(BULK_ITEM_FAILURES_METER_NAME).mark();
+                unpurged.add(purgeId);
+            } else {
+                purged.add(purgeId);
+                deleted++;
+            }
         }
 
-        return result;
+        return deleted;
     }
 
-    @Override
-    public CancelStatus cancelPurge(long purgeId) {
-        // Delete purge scroll
-        client.prepareDelete(PURGE_INDEX, PURGE_TYPE, getElasticPurgeId(purgeId)).get();
+    /**
+     * Writes the purge ID and composite flag to every document indexed before those fields existed, so purges find
+     * them with a term filter instead of decoding their visibilities. This is a one-off migration to run separately
+     * after upgrading, not part of any purge. Documents without a purge ID in their visibility are only marked as not
+     * composite.
+     *
+     * @param batchSize number of documents to update per bulk request
+     * @return number of documents updated
+     */
+    public long backfillProvenanceFields(int batchSize) {
+        long updated = 0;
+        while (true) {
+            // Updated documents no longer match, so every batch picks up where the last one left off
+            final SearchHit[] hits = client.prepareSearch(indexName).setQuery(getLegacyDocumentQuery())
+                    .setSize(batchSize).setFetchSource(VISIBILITY_ONLY, null).get().getHits().getHits();
+            if (hits.length == 0) {
+                break;
+            }
 
-        return CancelStatus.CANCELED;
-    }
+            final BulkRequestBuilder bulkRequest = client.prepareBulk();
+            for (final SearchHit hit : hits) {
+                final Map<String, Object> provenance = new HashMap<>();
+                final AdvancedMarkings markings = getLegacyMarkings(hit);
+                if (markings != null) {
+                    provenance.put(PURGE_ID_FIELD, markings.getId());
+                }
+                provenance.put(COMPOSITE_FIELD, markings != null && markings.isComposite());
+                bulkRequest.add(client.prepareUpdate(indexName, hit.getType(), hit.getId()).setDoc(provenance));
+            }
 
-    private List<PercolateQuery> filterPercolateQueriesByVisibility(
-            List<PercolateQuery> percolateQueryList, EzSecurityToken userToken) throws TException {
-        List<PercolateQuery> percolateQueriesToReturn = new ArrayList<>();
-        Map<String, List<PercolateQuery>> percolatorIdToDocumentHit = new HashMap<>();
-        Set<String> percolatorIds = new HashSet<>();
-        for (PercolateQuery percolateQuery : percolateQueryList) {
-            List<PercolateQuery> docHits = percolatorIdToDocumentHit.get(percolateQuery.getId());
-            if (docHits == null) {
-                docHits = new ArrayList<>();
+            int batchUpdated = 0;
+            for (final BulkItemResponse item : bulkRequest.get()) {
+                if (item.isFailed()) {
+                    logger.warn(
+                            "Backfilling provenance fields failed on an object ({}, {}): {}", item.getId(),
+                            item.getType(), item.getFailureMessage());
+                    metrics.meter(BULK_ITEM_FAILURES_METER_NAME).mark();
+                } else {
+                    batchUpdated++;
+                }
             }
+            refreshCoordinator.refreshNow();
+            updated += batchUpdated;
 
-            docHits.add(percolateQuery);
-            percolatorIdToDocumentHit.put(percolateQuery.getId(), docHits);
-            percolatorIds.add(percolateQuery.getId());
+            // Failed updates match again, so stop once a batch makes no progress
+            if (batchUpdated == 0) {
+                break;
+            }
         }
 
-        List<Document> documents = get(percolatorIds, PERCOLATOR_TYPE, userToken);
+        logger.info("Backfilled provenance fields on {} documents in {}", updated, indexName);
+        return updated;
+    }
+
+    /**
+     * Query for the documents indexed before the provenance fields existed.
+     */
+    private static QueryBuilder getLegacyDocumentQuery() {
+        return QueryBuilders.constantScoreQuery(
+                FilterBuilders.andFilter(
+                        FilterBuilders.existsFilter(VISIBILITY_FIELD), FilterBuilders.missingFilter(COMPOSITE_FIELD)));
+    }
 
-        for (Document document : documents) {
-            List<PercolateQuery> documentIdHit = percolatorIdToDocumentHit.get(document.get_id());
-            percolateQueriesToReturn.addAll(documentIdHit);
+    /**
+     * Decodes the advanced markings of a document without provenance fields.
+     *
+     * @return markings of the document, or null if its visibility has no purge ID or cannot be decoded
+     */
+    private AdvancedMarkings getLegacyMarkings(SearchHit hit) {
+        final Object visibilityBase64 = hit.getSource().get(VISIBILITY_FIELD);
+        try {
+            final Visibility visibility = getVisibility(visibilityBase64.toString());
+            if (visibility.isSetAdvancedMarkings() && visibility.getAdvancedMarkings().isSetId()) {
+                return visibility.getAdvancedMarkings();
+            }
+        } catch (final TException e) {
+            logger.error("Deserializing visibility of id {} failed.", hit.getId());
         }
 
-        return percolateQueriesToReturn;
+        return null;
     }
 
-    private String getElasticPurgeId(long purgeId) {
-        return String.format("%s_%s", applicationName, purgeId);
+    @Override
+    public CancelStatus cancelPurge(long purgeId) {
+        // Purges otherwise keep no state between batches, so there is nothing else to clean up
+        deleteLegacyPurgeState(purgeId);
+        return CancelStatus.CANCELED;
     }
 
-    private String getScrollId(long id, int batchSize) {
-        String scrollId;
-        final String elasticPurgeId = getElasticPurgeId(id);
-        final GetResponse scrollIdObject = client.prepareGet(PURGE_INDEX, PURGE_TYPE, elasticPurgeId).get();
-        if (scrollIdObject.isExists()) {
-            scrollId = scrollIdObject.getSource().get("sid").toString();
-        } else {
-            final SearchResponse scrollResponse =
-                    client.prepareSearch(indexName).setQuery(QueryBuilders.matchAllQuery())
-                            .setScroll(PURGE_SCROLL_DURATION).setSize(batchSize).setSearchType(SCAN)
-                            .addFields(VISIBILITY_FIELD).get();
+    /**
+     * Deletes the scroll ID an older version of this client stored for the purge, if any. The index itself is shared
+     * by every application and is left in place.
+     */
+    private void deleteLegacyPurgeState(long purgeId) {
+        if (client.admin().indices().prepareExists(LEGACY_PURGE_INDEX).get().isExists()) {
+            final String legacyPurgeId = String.format("%s_%s", applicationName, purgeId);
+            client.prepareDelete(LEGACY_PURGE_INDEX, LEGACY_PURGE_TYPE, legacyPurgeId).get();
+        }
+    }
+
+    /**
+     * Filter applied to the registered percolator queries themselves so only those the user can read are matched.
+     * This also keeps percolators the user can't see from using up the maximum number of matches.
+     */
+    private static FilterBuilder getPercolatorVisibilityFilter(EzSecurityToken userToken) throws TException {
+        return getVisibilityFilter(userToken, new VisibilityFilterConfig(VISIBILITY_FIELD, READ_PERMISSIONS));
+    }
+
+    private List<PercolateQuery> filterPercolateQueriesByVisibility(
+            List<PercolateQuery> percolateQueryList, EzSecurityToken userToken) throws TException {
+        final Map<String, Visibility> visibilityById = new HashMap<>();
+        final Set<String> uncachedIds = new HashSet<>();
+        for (final PercolateQuery percolateQuery : percolateQueryList) {
+            final Visibility visibility = percolatorVisibilities.getIfPresent(percolateQuery.getId());
+            if (visibility == null) {
+                uncachedIds.add(percolateQuery.getId());
+            } else {
+                visibilityById.put(percolateQuery.getId(), visibility);
+            }
+        }
+
+        // Only percolators registered through another service instance (or evicted) need a round trip
+        if (!uncachedIds.isEmpty()) {
+            final List<Document> percolators = getByIds(
+                    uncachedIds, PERCOLATOR_TYPE, VISIBILITY_ONLY, EnumSet.noneOf(Permission.class), true, userToken);
+            for (final Document percolator : percolators) {
+                percolatorVisibilities.put(percolator.get_id(), percolator.getVisibility());
+                visibilityById.put(percolator.get_id(), percolator.getVisibility());
+            }
+        }
 
-            scrollId = scrollResponse.getScrollId();
-            client.prepareIndex(PURGE_INDEX, PURGE_TYPE, elasticPurgeId).setSource("{\"sid\":\"" + scrollId + "\"}")
-                    .get();
+        final PermissionEvaluator evaluator = getPermissionEvaluator(userToken.getAuthorizations());
+        final List<PercolateQuery> percolateQueriesToReturn = new ArrayList<>();
+        try (Timer.Context ignored = metrics.timer(PERCOLATOR_VISIBILITY_TIMER_NAME).time()) {
+            for (final PercolateQuery percolateQuery : percolateQueryList) {
+                final Visibility visibility = visibilityById.get(percolateQuery.getId());
+                if (visibility != null && evaluator.getPermissions(visibility).containsAll(READ_PERMISSIONS)) {
+                    percolateQueriesToReturn.add(percolateQuery);
+                }
+            }
         }
-        return scrollId;
+
+        return percolateQueriesToReturn;
     }
 
     private List<Document> getDocsFromResult(SearchHits hits) throws TException {
@@ -894,33 +1291,203 @@ public final class ElasticClient implements DocumentStore {
     }
 
     private Document convertElasticSearchHit(SearchHit searchHit) throws TException {
-        final Map<String, Object> source;
-        Visibility visibility = new Visibility();
+        final String json;
+        String visibilityBase64 = null;
         if (searchHit.isSourceEmpty()) {
-            source = new HashMap<>();
+            final Map<String, Object> source = new HashMap<>();
             for (final Map.Entry<String, SearchHitField> entry : searchHit.getFields().entrySet()) {
                 if (entry.getKey().equals(VISIBILITY_FIELD)) {
-                    visibility =
-                            ThriftUtils.deserializeFromBase64(Visibility.class, entry.getValue().getValue().toString());
-                } else {
+                    visibilityBase64 = entry.getValue().getValue().toString();
+                } else if (!PROVENANCE_FIELDS.contains(entry.getKey())) {
                     source.put(entry.getKey(), entry.getValue().value());
                 }
             }
+            json = gson.toJson(source);
         } else {
-            source = searchHit.getSource();
-            visibility =
-                    ThriftUtils.deserializeFromBase64(Visibility.class, source.remove(VISIBILITY_FIELD).toString());
+            final DocumentSource source = parseSource(searchHit.getId(), searchHit.sourceRef());
+            json = source.getJson();
+            visibilityBase64 = source.getVisibilityBase64();
         }
 
         final Document document = new Document();
         document.set_id(searchHit.getId());
         document.set_type(searchHit.getType());
-        document.set_jsonObject(gson.toJson(source));
+        document.set_jsonObject(json);
         document.set_version(searchHit.getVersion());
-        document.setVisibility(visibility);
+        if (returnVisibility && visibilityBase64 != null) {
+            document.setVisibility(getVisibility(visibilityBase64).deepCopy());
+        } else {
+            document.setVisibility(new Visibility());
+        }
         return document;
     }
 
+    private static DocumentSource parseSource(String id, BytesReference source) throws TException {
+        try {
+            return DocumentSource.parse(source);
+        } catch (final IOException e) {
+            final String errMsg = "Could not read the source of document " + id;
+            logger.error(errMsg, e);
+            throw new TException(errMsg, e);
+        }
+    }
+
+    /**
+     * Retrieves documents by ID using a real-time multi-get instead of an ids query. This skips the query phase and
+     * sees documents that have not been refreshed yet. Since the visibility script filter only runs during a search,
+     * visibility is checked here against the returned visibility field.
+     *
+     * @param ids IDs of the documents to get
+     * @param type type of the documents, or empty for any type
+     * @param includes source fields to return (must contain the visibility field), or null for the full source
+     * @param requiredPermissions permissions the user must have on a document for it to be returned
+     * @param includeVisibility whether the returned documents carry their visibility. Internal visibility checks must
+     * pass true regardless of {@link #setReturnVisibility(boolean)}.
+     * @param userToken token of the user requesting the documents
+     * @return visible documents in the order the IDs were given
+     * @throws TException if a document visibility could not be deserialized
+     */
+    private List<Document> getByIds(
+            Collection<String> ids, String type, String[] includes, Set<Permission> requiredPermissions,
+            boolean includeVisibility, EzSecurityToken userToken) throws TException {
+        final Stopwatch watch = LoggingUtils.createStopWatch();
+        final List<Document> results = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return results;
+        }
+
+        final FetchSourceContext sourceContext =
+                includes == null ? FetchSourceContext.FETCH_SOURCE : new FetchSourceContext(includes);
+        final String itemType = StringUtils.isEmpty(type) ? null : type;
+
+        final MultiGetRequestBuilder request = client.prepareMultiGet().setRealtime(true);
+        for (final String id : ids) {
+            request.add(new MultiGetRequest.Item(indexName, itemType, id).fetchSourceContext(sourceContext));
+        }
+
+        final PermissionEvaluator evaluator = getPermissionEvaluator(userToken.getAuthorizations());
+        final Timer visibilityTimer = metrics.timer(DOCUMENT_VISIBILITY_TIMER_NAME);
+        for (final MultiGetItemResponse item : request.get()) {
+            if (item.isFailed()) {
+                logger.warn(
+                        "Unable to get document {}/{}: {}", item.getType(), item.getId(),
+                        item.getFailure().getMessage());
+                continue;
+            }
+
+            final GetResponse response = item.getResponse();
+            if (!response.isExists() || response.isSourceEmpty()) {
+                continue;
+            }
+
+            final DocumentSource source = parseSource(response.getId(), response.getSourceAsBytesRef());
+            if (source.getVisibilityBase64() == null) {
+                logger.error("Attempt to read visibility field from object {} failed.", response.getId());
+                continue;
+            }
+
+            final long visibilityStart = System.nanoTime();
+            final Visibility visibility = getVisibility(source.getVisibilityBase64());
+            final boolean visible = evaluator.getPermissions(visibility).containsAll(requiredPermissions);
+            visibilityTimer.update(System.nanoTime() - visibilityStart, TimeUnit.NANOSECONDS);
+            if (!visible) {
+                continue;
+            }
+
+            final Document document = new Document();
+            document.set_id(response.getId());
+            document.set_type(response.getType());
+            document.set_jsonObject(source.getJson());
+            document.set_version(response.getVersion());
+            document.setVisibility(includeVisibility ? visibility.deepCopy() : new Visibility());
+            results.add(document);
+        }
+
+        LoggingUtils.stopAndLogStopWatch(logger, watch, "Get By IDs");
+
+        return results;
+    }
+
+    private PermissionEvaluator getPermissionEvaluator(Authorizations authorizations) {
+        PermissionEvaluator evaluator = permissionEvaluators.getIfPresent(authorizations);
+        if (evaluator == null) {
+            evaluator = new PermissionEvaluator(authorizations);
+            permissionEvaluators.put(authorizations.deepCopy(), evaluator);
+        }
+        return evaluator;
+    }
+
+    private Visibility getVisibility(String visibilityBase64) throws TException {
+        Visibility visibility = visibilities.getIfPresent(visibilityBase64);
+        if (visibility == null) {
+            visibility = ThriftUtils.deserializeFromBase64(Visibility.class, visibilityBase64);
+            visibilities.put(visibilityBase64, visibility);
+        }
+        return visibility;
+    }
+
+    private SearchTemplate getSearchTemplate(
+            String query, List<SortCriteria> sortCriteria, Set<String> fields, List<Facet> facets, String filterJson,
+            Authorizations authorizations) throws TException {
+        final SearchTemplate.Key key =
+                new SearchTemplate.Key(query, sortCriteria, fields, facets, filterJson, authorizations);
+        SearchTemplate template = searchTemplates.getIfPresent(key);
+        if (template != null) {
+            metrics.meter(SEARCH_TEMPLATE_HITS_METER_NAME).mark();
+            return template;
+        }
+
+        metrics.meter(SEARCH_TEMPLATE_MISSES_METER_NAME).mark();
+        final FilterBuilder visibilityFilter;
+        try (Timer.Context ignored = metrics.timer(VISIBILITY_FILTER_TIMER_NAME).time()) {
+            visibilityFilter = getVisibilityFilter(
+                    authorizations, new VisibilityFilterConfig(VISIBILITY_FIELD, READ_PERMISSIONS));
+        }
+
+        template = new SearchTemplate(
+                QueryBuilders.filteredQuery(parseQuery(query), visibilityFilter), fields, sortCriteria, filterJson,
+                facets, visibilityFilter);
+        searchTemplates.put(key.copy(), template);
+        return template;
+    }
+
+    private ScrollContext getScrollContext(String scrollId, EzSecurityToken userToken) throws TException {
+        final ScrollContext context = scrolls.getIfPresent(scrollId);
+
+        // The visibility filter was fixed when the scroll was opened, so only the same user with the same
+        // authorizations may continue it
+        if (context == null || !context.owner.equals(getScrollOwner(userToken))
+                || !context.authorizations.equals(userToken.getAuthorizations())) {
+            final String errMsg = "Scroll " + scrollId + " does not exist or has expired";
+            logger.error(errMsg);
+            throw new TException(errMsg);
+        }
+
+        return context;
+    }
+
+    private void clearScroll(ScrollContext context) {
+        // Called on whichever thread evicted the scroll from the cache, so don't make it wait for the cluster
+        client.prepareClearScroll().addScrollId(context.elasticScrollId).execute(
+                new ActionListener<ClearScrollResponse>() {
+                    @Override
+                    public void onResponse(ClearScrollResponse response) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        logger.warn("Unable to clear scroll", e);
+                    }
+                });
+    }
+
+    private static String getScrollOwner(EzSecurityToken userToken) {
+        if (userToken.isSetTokenPrincipal()) {
+            return userToken.getTokenPrincipal().getPrincipal();
+        }
+        return userToken.isSetValidity() ? userToken.getValidity().getIssuedTo() : "";
+    }
+
     private boolean isVisible(DocumentIdentifier id, EzSecurityToken token) {
         try {
             ensureVisible(id, token);
@@ -931,24 +1498,92 @@ public final class ElasticClient implements DocumentStore {
     }
 
     private void ensureVisible(DocumentIdentifier id, EzSecurityToken token) throws TException {
-        Document foundDoc;
+        final List<Document> foundDocs;
         try {
-            foundDoc = get(id.getId(), id.getType(), null, token);
+            // Only the visibility is needed to decide
+            foundDocs = getByIds(
+                    Collections.singleton(id.getId()), id.getType(), VISIBILITY_ONLY, READ_PERMISSIONS, false, token);
         } catch (final TException e) {
             final String errMsg = "There was an error finding the given id " + id;
             logger.error(errMsg, e);
             throw new TException(errMsg, e);
         }
 
-        if (EzElasticHandler.BLANK_DOCUMENT.equals(foundDoc)) {
+        if (foundDocs.isEmpty()) {
             final String errMsg = "There was an attempt to get a document by ID that was not present: " + id;
             logger.error(errMsg);
             throw new TException(errMsg);
         }
     }
 
+    /**
+     * Makes a write visible to searches, either immediately or with the next coalesced refresh.
+     */
+    private void refreshAfterWrite(boolean waitForVisibility) {
+        if (waitForVisibility) {
+            refreshCoordinator.refreshNow();
+        } else {
+            refreshCoordinator.requestRefresh();
+        }
+    }
+
     private boolean indexExists(String index) {
-        return client.admin().indices().prepareExists(index).get().isExists();
+        return indexMetadata.indexExists(index);
+    }
+
+    private void setTypeMapping(String type, String mappingJson, boolean indexExists) {
+        if (StringUtils.isBlank(mappingJson) && indexExists) {
+            client.admin().indices().prepareDeleteMapping().setIndices(indexName).setType(type).get();
+        } else {
+            if (indexExists) {
+                client.admin().indices().preparePutMapping().setIndices(indexName).setType(type).setSource(mappingJson)
+                        .get();
+            } else {
+                client.admin().indices().prepareCreate(indexName).addMapping(type, mappingJson).get();
+                indexMetadata.invalidate();
+            }
+        }
+    }
+
+    private void applySettings(String settingsJson, boolean indexExists) {
+        if (indexExists) {
+            client.admin().indices().prepareUpdateSettings().setSettings(settingsJson).setIndices(indexName).get();
+        } else {
+            client.admin().indices().prepareCreate(indexName).setSettings(settingsJson).get();
+            indexMetadata.invalidate();
+        }
+    }
+
+    /**
+     * @return whether the exception means the cached index metadata no longer matches the cluster, because the index
+     * was created or deleted by someone else
+     */
+    private static boolean isStaleIndexMetadata(ElasticsearchException e) {
+        final Throwable cause = ExceptionsHelper.unwrapCause(e);
+        return cause instanceof IndexMissingException || cause instanceof IndexAlreadyExistsException;
+    }
+
+    private static final class ScrollContext {
+        private final String owner;
+        private final Authorizations authorizations;
+        private final long totalHits;
+        private String elasticScrollId;
+
+        private ScrollContext(String owner, Authorizations authorizations, String elasticScrollId, long totalHits) {
+            this.owner = owner;
+            this.authorizations = authorizations;
+            this.elasticScrollId = elasticScrollId;
+            this.totalHits = totalHits;
+        }
+    }
+
+    private static void addProvenanceMapping(XContentBuilder template) throws IOException {
+        template.startObject(PURGE_ID_FIELD);
+        template.field("type", "long");
+        template.endObject();
+        template.startObject(COMPOSITE_FIELD);
+        template.field("type", "boolean");
+        template.endObject();
     }
 
     private void applyDefaultMapping() {
@@ -963,6 +1598,7 @@ public final class ElasticClient implements DocumentStore {
             template.field("type", "string");
             template.field("index", "not_analyzed");
             template.endObject();
+            addProvenanceMapping(template);
             template.endObject();
             template.endObject(); // end _default_
             template.startObject(PERCOLATOR_TYPE);
@@ -971,6 +1607,7 @@ public final class ElasticClient implements DocumentStore {
             template.field("type", "string");
             template.field("index", "not_analyzed");
             template.endObject(); // end visibility field
+            addProvenanceMapping(template);
             template.startObject("query");
             template.field("type", "object");
             template.field("enabled", false);
@@ -1014,15 +1651,12 @@ public final class ElasticClient implements DocumentStore {
             // Once the application migrates to a versioned index we can start using that
             if (!indexExists(indexName)) {
                 // Create the versioned index if it does not exist
-                if (!client.admin().indices().prepareExists(versionedIndex).get().isExists()) {
+                if (!indexExists(versionedIndex)) {
                     client.admin().indices().prepareCreate(versionedIndex).get();
                     client.admin().indices().prepareAliases().addAlias(versionedIndex, indexName).get();
+                    indexMetadata.invalidate();
                 }
             }
-
-            if (!indexExists(PURGE_INDEX)) {
-                client.admin().indices().prepareCreate(PURGE_INDEX).get();
-            }
         } catch (final IOException e) {
             throw new ElasticsearchException("Could not create mapping template", e);
         }
@@ -19,7 +19,6 @@ import static ezbake.util.AuditEvent.event;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
@@ -29,13 +28,14 @@ import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableSet;
@@ -76,17 +76,39 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
     private static final String INDEX_VERSION_KEY = "ezelastic.index.version";
     private static final String USE_LOCAL_ELASTIC_KEY = "ezelastic.use.local.elastic";
     private static final String POST_FILTER_PERCOLATE_QUERIES = "ezelastic.post.filter.percolate.queries";
+    private static final String REFRESH_INTERVAL_KEY = "ezelastic.refresh.interval.ms";
+    private static final String BULK_ACTIONS_KEY = "ezelastic.bulk.actions";
+    private static final String BULK_SIZE_MB_KEY = "ezelastic.bulk.size.mb";
+    private static final String BULK_CONCURRENT_REQUESTS_KEY = "ezelastic.bulk.concurrent.requests";
+    private static final String BULK_MAX_RETRIES_KEY = "ezelastic.bulk.max.retries";
+    private static final String BULK_RETRY_BACKOFF_KEY = "ezelastic.bulk.retry.backoff.ms";
+    private static final String TRANSPORT_SNIFF_KEY = "ezelastic.transport.sniff";
+    private static final String TRANSPORT_PING_TIMEOUT_KEY = "ezelastic.transport.ping.timeout";
+    private static final String TRANSPORT_NODES_SAMPLER_INTERVAL_KEY = "ezelastic.transport.nodes.sampler.interval";
+    private static final String RETURN_VISIBILITY_KEY = "ezelastic.return.visibility";
     private static final int DEFAULT_INDEX_VERSION = 1;
+    private static final int DEFAULT_SCROLL_PAGE_SIZE = 100;
 
-    // Metrics
+    // Metrics, named per operation only so the number of metrics stays fixed
     private static final String PUT_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "PUT");
+    private static final String PUT_DOCUMENTS_HISTOGRAM_NAME =
+            MetricRegistry.name(EzElasticHandler.class, "PUT", "documents");
+    // Payload size in JSON characters, which is cheaper to get than the encoded size and close to it for ASCII
+    private static final String PUT_CHARS_HISTOGRAM_NAME = MetricRegistry.name(EzElasticHandler.class, "PUT", "chars");
+    private static final String UPDATE_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "UPDATE");
+    private static final String GET_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "GET");
+    private static final String GET_DOCUMENTS_HISTOGRAM_NAME =
+            MetricRegistry.name(EzElasticHandler.class, "GET", "documents");
+    private static final String QUERY_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "QUERY");
+    private static final String SCROLL_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "SCROLL");
+    private static final String DELETE_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "DELETE");
+    private static final String COUNT_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "COUNT");
     private static final String PURGE_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "PURGE");
     private static final String PERCOLATE_TIMER_NAME = MetricRegistry.name(EzElasticHandler.class, "PERCOLATE");
-    private static final String GET_METER_NAME = MetricRegistry.name(EzElasticHandler.class, "GET");
-    private static final String QUERY_METER_NAME = MetricRegistry.name(EzElasticHandler.class, "QUERY");
 
     private static boolean postFilterPercolateQueries;
     private DocumentStore documentStore;
+    private Client transportClient;
     private String applicationName = "";
 
     private static void logError(Exception e, AuditEvent evt, String loggerMessage) {
@@ -97,6 +119,9 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
     }
 
     public void init() {
+        // getThriftProcessor initializes again, so let go of any client from an earlier call
+        shutdown();
+
         final Properties config = getConfigurationProperties();
         final EzBakeApplicationConfigurationHelper appConfig = new EzBakeApplicationConfigurationHelper(config);
         final ElasticsearchConfigurationHelper elasticConfig = new ElasticsearchConfigurationHelper(config);
@@ -112,18 +137,48 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         postFilterPercolateQueries = ezProps.getBoolean(POST_FILTER_PERCOLATE_QUERIES, true);
         final int elasticIndexVersion = ezProps.getInteger(INDEX_VERSION_KEY, DEFAULT_INDEX_VERSION);
         boolean elasticUseLocal = ezProps.getBoolean(USE_LOCAL_ELASTIC_KEY, false);
+        final long refreshInterval =
+                ezProps.getLong(REFRESH_INTERVAL_KEY, RefreshCoordinator.DEFAULT_REFRESH_INTERVAL_MILLIS);
 
+        final ElasticClient elasticClient;
         if (elasticUseLocal) {
-            documentStore = startLocalNode(elasticCluster, elasticForceRefresh, elasticIndexVersion);
+            elasticClient = startLocalNode(elasticCluster, elasticForceRefresh, elasticIndexVersion, refreshInterval);
         } else {
-            documentStore = ElasticClient.getInstance(
-                    elasticHost, elasticPort, elasticCluster, applicationName, elasticForceRefresh,
-                    elasticIndexVersion);
+            transportClient = TransportClientFactory.getClient(
+                    elasticHost, elasticPort, elasticCluster,
+                    ezProps.getBoolean(TRANSPORT_SNIFF_KEY, TransportClientFactory.DEFAULT_SNIFF),
+                    ezProps.getProperty(TRANSPORT_PING_TIMEOUT_KEY, TransportClientFactory.DEFAULT_PING_TIMEOUT),
+                    ezProps.getProperty(
+                            TRANSPORT_NODES_SAMPLER_INTERVAL_KEY,
+                            TransportClientFactory.DEFAULT_NODES_SAMPLER_INTERVAL));
+            elasticClient = new ElasticClient(
+                    transportClient, applicationName, elasticForceRefresh, elasticIndexVersion, refreshInterval);
         }
 
+        elasticClient.setBulkOptions(
+                ezProps.getInteger(BULK_ACTIONS_KEY, BulkIngester.DEFAULT_BULK_ACTIONS),
+                new ByteSizeValue(
+                        ezProps.getLong(BULK_SIZE_MB_KEY, BulkIngester.DEFAULT_BULK_SIZE.getMb()), ByteSizeUnit.MB),
+                ezProps.getInteger(BULK_CONCURRENT_REQUESTS_KEY, BulkIngester.DEFAULT_CONCURRENT_REQUESTS),
+                ezProps.getInteger(BULK_MAX_RETRIES_KEY, BulkIngester.DEFAULT_MAX_RETRIES),
+                ezProps.getLong(BULK_RETRY_BACKOFF_KEY, BulkIngester.DEFAULT_RETRY_BACKOFF_MILLIS));
+        elasticClient.setReturnVisibility(ezProps.getBoolean(RETURN_VISIBILITY_KEY, true));
+        elasticClient.setMetricRegistry(getMetricRegistry());
+        documentStore = elasticClient;
+
         initAuditLogger(EzElasticHandler.class);
     }
 
+    /**
+     * Releases this handler's reference to the shared transport client, closing it if no other handler uses it.
+     */
+    public void shutdown() {
+        if (transportClient != null) {
+            TransportClientFactory.releaseClient(transportClient);
+            transportClient = null;
+        }
+    }
+
     @Override
     public TProcessor getThriftProcessor() {
         init();
@@ -137,11 +192,7 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
 
     @Override
     public IndexResponse put(Document document, EzSecurityToken ezSecurityToken) throws TException {
-        TokenUtils.validateSecurityToken(ezSecurityToken, getConfigurationProperties());
-
-        try (Timer.Context ignored = getMetricRegistry().timer(PUT_TIMER_NAME).time()) {
-            return bulkPut(Collections.singletonList(document), ezSecurityToken).get(0);
-        }
+        return bulkPut(Collections.singletonList(document), ezSecurityToken).get(0);
     }
 
     @Override
@@ -151,21 +202,13 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectModify, "update", id.getType(), id.getId());
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        final String key = MetricRegistry.name(EzElasticHandler.class, "UPDATE", id.getId());
-        retrieveCounter(key).inc();
-
-        return documentStore.update(id, script, options, userToken);
+        try (Timer.Context ignored = getMetricRegistry().timer(UPDATE_TIMER_NAME).time()) {
+            return documentStore.update(id, script, options, userToken);
+        }
     }
 
     @Override
     public Document get(String _id, EzSecurityToken userToken) throws TException {
-        TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
-
-        // handle the meter and counter for Metrics
-        getMetricRegistry().meter(GET_METER_NAME).mark();
-        final String key = MetricRegistry.name(EzElasticHandler.class, "GET", _id);
-        retrieveCounter(key).inc();
-
         return getWithType(_id, "", userToken);
     }
 
@@ -186,7 +229,7 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectAccess, "getWithFields", _type, _id);
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        try {
+        try (Timer.Context ignored = getMetricRegistry().timer(GET_TIMER_NAME).time()) {
             return documentStore.get(_id, _type, fields, userToken);
         } catch (final MalformedQueryException e) {
             logger.error(
@@ -203,14 +246,41 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectAccess, "query", type, query.getSearchString());
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        // TODO: we could add a timer metric to calculate how long the query takes; meter will
-        // keep track of how many calls per time period
-        getMetricRegistry().meter(QUERY_METER_NAME).mark();
+        try (Timer.Context ignored = getMetricRegistry().timer(QUERY_TIMER_NAME).time()) {
+            return documentStore.get(
+                    query.getSearchString(), type, query.getSortCriteria(), query.getReturnedFields(),
+                    query.getFacets(), query.getFilterJson(), query.isSetPage() ? query.getPage().getOffset() : 0,
+                    query.isSetPage() ? query.getPage().getPageSize() : (short) -1, query.getHighlighting(),
+                    userToken);
+        }
+    }
+
+    public ScrollPage openScroll(Query query, EzSecurityToken userToken) throws TException {
+        final String type = query.isSetType() ? query.getType() : "";
+        auditLog(userToken, AuditEventType.FileObjectAccess, "openScroll", type, query.getSearchString());
+        TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
+
+        try (Timer.Context ignored = getMetricRegistry().timer(SCROLL_TIMER_NAME).time()) {
+            return documentStore.openScroll(
+                    query.getSearchString(), type, query.getReturnedFields(),
+                    query.isSetPage() ? query.getPage().getPageSize() : DEFAULT_SCROLL_PAGE_SIZE, userToken);
+        }
+    }
+
+    public ScrollPage nextScroll(String scrollId, EzSecurityToken userToken) throws TException {
+        auditLog(userToken, AuditEventType.FileObjectAccess, "nextScroll", "", scrollId);
+        TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
+
+        try (Timer.Context ignored = getMetricRegistry().timer(SCROLL_TIMER_NAME).time()) {
+            return documentStore.nextScroll(scrollId, userToken);
+        }
+    }
+
+    public void closeScroll(String scrollId, EzSecurityToken userToken) throws TException {
+        auditLog(userToken, AuditEventType.FileObjectAccess, "closeScroll", "", scrollId);
+        TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        return documentStore.get(
-                query.getSearchString(), type, query.getSortCriteria(), query.getReturnedFields(), query.getFacets(),
-                query.getFilterJson(), query.isSetPage() ? query.getPage().getOffset() : 0,
-                query.isSetPage() ? query.getPage().getPageSize() : (short) -1, query.getHighlighting(), userToken);
+        documentStore.closeScroll(scrollId, userToken);
     }
 
     @Override
@@ -233,7 +303,9 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectDelete, "delete", _type, query);
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        documentStore.delete(query, _type, userToken);
+        try (Timer.Context ignored = getMetricRegistry().timer(DELETE_TIMER_NAME).time()) {
+            documentStore.delete(query, _type, userToken);
+        }
     }
 
     @Override
@@ -242,16 +314,26 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         TokenUtils.validateSecurityToken(securityToken, getConfigurationProperties());
 
         // Assign a document ID if one does not exist
+        long payloadChars = 0;
         for (final Document document : documents) {
             if (StringUtils.isBlank(document.get_id())) {
                 document.set_id(UUID.randomUUID().toString());
             }
 
+            if (document.isSet_jsonObject()) {
+                payloadChars += document.get_jsonObject().length();
+            }
+
             auditLog(
                     securityToken, AuditEventType.FileObjectCreate, "indexing", document.get_type(), document.get_id());
         }
 
-        return documentStore.put(documents);
+        getMetricRegistry().histogram(PUT_DOCUMENTS_HISTOGRAM_NAME).update(documents.size());
+        getMetricRegistry().histogram(PUT_CHARS_HISTOGRAM_NAME).update(payloadChars);
+
+        try (Timer.Context ignored = getMetricRegistry().timer(PUT_TIMER_NAME).time()) {
+            return documentStore.put(documents);
+        }
     }
 
     @Override
@@ -259,7 +341,11 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectAccess, "get", _type, StringUtils.join(ids, ", "));
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        return documentStore.get(ids, _type, userToken);
+        getMetricRegistry().histogram(GET_DOCUMENTS_HISTOGRAM_NAME).update(ids.size());
+
+        try (Timer.Context ignored = getMetricRegistry().timer(GET_TIMER_NAME).time()) {
+            return documentStore.get(ids, _type, userToken);
+        }
     }
 
     @Override
@@ -272,7 +358,9 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectDelete, "delete", _type, StringUtils.join(ids, ", "));
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        documentStore.delete(ids, _type, userToken);
+        try (Timer.Context ignored = getMetricRegistry().timer(DELETE_TIMER_NAME).time()) {
+            documentStore.delete(ids, _type, userToken);
+        }
     }
 
     @Override
@@ -290,7 +378,9 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         auditLog(userToken, AuditEventType.FileObjectAccess, "count", StringUtils.join(types, ", "), "N/A");
         TokenUtils.validateSecurityToken(userToken, getConfigurationProperties());
 
-        return documentStore.count(types, query, Collections.<String>emptySet(), userToken);
+        try (Timer.Context ignored = getMetricRegistry().timer(COUNT_TIMER_NAME).time()) {
+            return documentStore.count(types, query, Collections.<String>emptySet(), userToken);
+        }
     }
 
     @Override
@@ -461,25 +551,7 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         logEvent(event);
     }
 
-    /**
-     * Retrieve the MetricRegistry counter associated with the key parameter
-     *
-     * @param name - the key into MetricRegistry's counter map
-     * @return Counter
-     */
-    private Counter retrieveCounter(String name) {
-        final Map<String, Counter> counters = getMetricRegistry().getCounters();
-        Counter c;
-        if (counters.containsKey(name)) {
-            c = counters.get(name);
-        } else {
-            c = getMetricRegistry().counter(name);
-        }
-
-        return c;
-    }
-
-    private ElasticClient startLocalNode(String clusterName, boolean refresh, int version) {
+    private ElasticClient startLocalNode(String clusterName, boolean refresh, int version, long refreshInterval) {
         final ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder()
                 .put("node.name", applicationName + "-local-node" + System.currentTimeMillis()).put("node.data", true)
                 .put("cluster.name", clusterName).put("index.store.type", "memory")
@@ -496,6 +568,6 @@ public final class EzElasticHandler extends EzbakeBaseDataService implements EzE
         client.admin().cluster().prepareHealth().setWaitForYellowStatus().setTimeout(TimeValue.timeValueMinutes(1))
                 .execute().actionGet();
 
-        return new ElasticClient(client, applicationName, refresh, version);
+        return new ElasticClient(client, applicationName, refresh, version, refreshInterval);
     }
 }
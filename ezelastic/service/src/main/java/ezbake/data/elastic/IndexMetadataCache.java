@@ -0,0 +1,77 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches whether indices and aliases exist, and how many shards they have, so checks don't need an admin round trip
+ * each time. Answers are reloaded when they are older than the given time to live, and callers that create or delete
+ * indices through this service invalidate them right away. A reload only fetches the metadata of the one index or
+ * alias being checked.
+ */
+final class IndexMetadataCache {
+    static final long DEFAULT_TTL_MILLIS = 30000;
+
+    private final Client client;
+    // Number of primary shards behind each name, 0 if there is no such index or alias
+    private final Cache<String, Integer> shards;
+
+    IndexMetadataCache(Client client, long ttlMillis) {
+        this.client = client;
+        this.shards = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * @param name name of an index or alias
+     * @return whether an index or alias with the name exists
+     */
+    boolean indexExists(String name) {
+        return getShardCount(name) > 0;
+    }
+
+    /**
+     * @param name name of an index or alias
+     * @return number of primary shards in the index, or in all indices behind the alias, or 0 if neither exists
+     */
+    int getShardCount(String name) {
+        Integer current = shards.getIfPresent(name);
+        if (current == null) {
+            // Missing names resolve to no indices rather than failing the request
+            final MetaData metaData = client.admin().cluster().prepareState().setIndices(name).setMetaData(true)
+                    .setRoutingTable(false).setNodes(false).setBlocks(false).get().getState().metaData();
+            int count = 0;
+            for (final IndexMetaData index : metaData) {
+                count += index.getNumberOfShards();
+            }
+            current = count;
+            shards.put(name, current);
+        }
+        return current;
+    }
+
+    /**
+     * Forces the next lookups to reload. Call after creating or deleting indices or aliases.
+     */
+    void invalidate() {
+        shards.invalidateAll();
+    }
+}
@@ -0,0 +1,101 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import static ezbake.data.elastic.common.ElasticUtils.refreshIndex;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Coalesces index refreshes requested by concurrent writers. Requested refreshes run at most once per interval, while
+ * writers that need to read their writes can refresh immediately and share a refresh with anyone else waiting on one.
+ */
+final class RefreshCoordinator {
+    static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshCoordinator.class);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ezelastic-refresh-%d").setDaemon(true).build());
+
+    private final Client client;
+    private final String indexName;
+    private final long refreshIntervalNanos;
+
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+    private final Object refreshLock = new Object();
+    private volatile long lastRefreshStart = System.nanoTime();
+
+    RefreshCoordinator(Client client, String indexName, long refreshIntervalMillis) {
+        this.client = client;
+        this.indexName = indexName;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+    }
+
+    /**
+     * Requests that the index be refreshed. The refresh happens asynchronously, no sooner than one interval after the
+     * previous refresh, and is shared by every request made before it starts.
+     */
+    void requestRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        final long delay = Math.max(0, lastRefreshStart + refreshIntervalNanos - System.nanoTime());
+        scheduler.schedule(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // Clear first so writes made during the refresh schedule another one
+                        refreshScheduled.set(false);
+                        try {
+                            refresh();
+                        } catch (final ElasticsearchException e) {
+                            logger.warn("Scheduled refresh of index {} failed", indexName, e);
+                        }
+                    }
+                }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Refreshes the index before returning, unless a refresh that started after this call has already completed.
+     */
+    void refreshNow() {
+        final long calledAt = System.nanoTime();
+        synchronized (refreshLock) {
+            if (lastRefreshStart - calledAt > 0) {
+                logger.trace("Index {} was refreshed while waiting, skipping refresh", indexName);
+                return;
+            }
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        synchronized (refreshLock) {
+            lastRefreshStart = System.nanoTime();
+            refreshIndex(client, indexName);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import java.util.List;
+
+import ezbake.data.elastic.thrift.Document;
+
+/**
+ * One page of documents read from an open scroll.
+ */
+public final class ScrollPage {
+    private final String scrollId;
+    private final long totalHits;
+    private final List<Document> documents;
+    private final boolean finished;
+
+    public ScrollPage(String scrollId, long totalHits, List<Document> documents, boolean finished) {
+        this.scrollId = scrollId;
+        this.totalHits = totalHits;
+        this.documents = documents;
+        this.finished = finished;
+    }
+
+    /**
+     * @return ID to pass to the next call for this scroll
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    /**
+     * @return total number of visible documents matching the scrolled query
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public List<Document> getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return whether all documents have been read, in which case the scroll has been closed
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
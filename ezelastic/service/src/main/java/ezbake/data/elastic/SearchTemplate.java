@@ -0,0 +1,188 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import static ezbake.data.elastic.common.ElasticUtils.VISIBILITY_FIELD;
+import static ezbake.data.elastic.common.ElasticUtils.convertFacets;
+import static ezbake.data.elastic.common.ElasticUtils.convertFieldSort;
+import static ezbake.data.elastic.common.ElasticUtils.convertGeoSort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.thrift.TBase;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.facet.FacetBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import ezbake.base.thrift.Authorizations;
+import ezbake.data.elastic.thrift.Facet;
+import ezbake.data.elastic.thrift.FacetRequest;
+import ezbake.data.elastic.thrift.SortCriteria;
+
+/**
+ * The parts of a search that depend only on the query, facets, sort, fields, post filter and the user's
+ * authorizations. Building these means parsing the query, converting every facet and serializing the authorizations
+ * for the visibility filter, so a template is built once and applied to many searches that differ only in type,
+ * paging and highlighting. The builders it holds are never modified after construction.
+ */
+final class SearchTemplate {
+    private final QueryBuilder query;
+    private final String[] fetchSource;
+    private final List<SortBuilder> sorts;
+    private final FilterBuilder postFilter;
+    private final List<FacetBuilder> facets;
+    private final Map<String, FacetRequest._Fields> facetMap;
+
+    SearchTemplate(
+            QueryBuilder query, Set<String> fields, List<SortCriteria> sortCriteria, String filterJson,
+            List<Facet> facets, FilterBuilder visibilityFilter) {
+        this.query = query;
+
+        if (fields != null && !fields.isEmpty()) {
+            final Set<String> sourceFields = new HashSet<>(fields);
+            sourceFields.add(VISIBILITY_FIELD);
+            // Starting in ES 1.0.0 rc1 fields will not be returned if they are not leaves; we now
+            // need to filter the _source property
+            fetchSource = sourceFields.toArray(new String[sourceFields.size()]);
+        } else {
+            fetchSource = null;
+        }
+
+        final List<SortBuilder> sortBuilders = new ArrayList<>();
+        if (sortCriteria != null) {
+            for (final SortCriteria criteria : sortCriteria) {
+                if (criteria.isSet(SortCriteria._Fields.FIELD_SORT)) {
+                    sortBuilders.add(convertFieldSort(criteria.getFieldSort()));
+                } else {
+                    sortBuilders.add(convertGeoSort(criteria.getGeoSort()));
+                }
+            }
+        }
+        sorts = Collections.unmodifiableList(sortBuilders);
+
+        postFilter = StringUtils.isBlank(filterJson) ? null : FilterBuilders.wrapperFilter(filterJson);
+
+        final List<FacetBuilder> facetBuilders = new ArrayList<>();
+        if (facets != null && !facets.isEmpty()) {
+            facetMap = Collections.unmodifiableMap(convertFacets(facets, visibilityFilter, facetBuilders));
+        } else {
+            facetMap = Collections.emptyMap();
+        }
+        this.facets = Collections.unmodifiableList(facetBuilders);
+    }
+
+    /**
+     * Adds the query, field restrictions, sorts, post filter and facets of this template to a search.
+     */
+    void applyTo(SearchRequestBuilder builder) {
+        builder.setQuery(query);
+
+        if (fetchSource != null) {
+            builder.setFetchSource(fetchSource, null);
+        }
+
+        for (final SortBuilder sort : sorts) {
+            builder.addSort(sort);
+        }
+
+        if (postFilter != null) {
+            builder.setPostFilter(postFilter);
+        }
+
+        for (final FacetBuilder facet : facets) {
+            builder.addFacet(facet);
+        }
+    }
+
+    /**
+     * @return the type of each facet by label, for reading the facet results
+     */
+    Map<String, FacetRequest._Fields> getFacetMap() {
+        return facetMap;
+    }
+
+    /**
+     * Everything a template is built from. Keys refer to the caller's objects for lookups; {@link #copy()} them before
+     * storing so later changes by the caller don't affect the cache.
+     */
+    static final class Key {
+        private final String query;
+        private final List<SortCriteria> sortCriteria;
+        private final Set<String> fields;
+        private final List<Facet> facets;
+        private final String filterJson;
+        private final Authorizations authorizations;
+        private final int hashCode;
+
+        Key(
+                String query, List<SortCriteria> sortCriteria, Set<String> fields, List<Facet> facets,
+                String filterJson, Authorizations authorizations) {
+            this.query = query;
+            this.sortCriteria = sortCriteria == null ? Collections.<SortCriteria>emptyList() : sortCriteria;
+            this.fields = fields == null ? Collections.<String>emptySet() : fields;
+            this.facets = facets == null ? Collections.<Facet>emptyList() : facets;
+            this.filterJson = filterJson;
+            this.authorizations = authorizations;
+            hashCode = Objects.hashCode(query, this.sortCriteria, this.fields, this.facets, filterJson, authorizations);
+        }
+
+        Key copy() {
+            return new Key(
+                    query, copyOf(sortCriteria), ImmutableSet.copyOf(fields), copyOf(facets), filterJson,
+                    authorizations.deepCopy());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return hashCode == other.hashCode && Objects.equal(query, other.query)
+                    && sortCriteria.equals(other.sortCriteria) && fields.equals(other.fields)
+                    && facets.equals(other.facets) && Objects.equal(filterJson, other.filterJson)
+                    && authorizations.equals(other.authorizations);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static <T extends TBase<T, ?>> List<T> copyOf(List<T> values) {
+            final ImmutableList.Builder<T> copy = ImmutableList.builder();
+            for (final T value : values) {
+                copy.add(value.deepCopy());
+            }
+            return copy.build();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+package ezbake.data.elastic;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out one {@link TransportClient} per cluster so every {@link ElasticClient} talking to the same cluster shares
+ * its connections instead of opening new ones. Clients sniff the rest of the cluster from the given hosts and sample
+ * node health periodically, so requests only go to nodes that are connected and responding.
+ * <p/>
+ * Clients are reference counted. Every {@link #getClient} call must be matched by a {@link #releaseClient} call when
+ * the caller shuts down, and a client is closed once its last user releases it.
+ */
+public final class TransportClientFactory {
+    public static final boolean DEFAULT_SNIFF = true;
+    public static final String DEFAULT_PING_TIMEOUT = "5s";
+    public static final String DEFAULT_NODES_SAMPLER_INTERVAL = "5s";
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportClientFactory.class);
+
+    private static final Map<String, SharedClient> clients = new HashMap<>();
+
+    private TransportClientFactory() {
+    }
+
+    public static Client getClient(String hosts, int port, String cluster) {
+        return getClient(hosts, port, cluster, DEFAULT_SNIFF, DEFAULT_PING_TIMEOUT, DEFAULT_NODES_SAMPLER_INTERVAL);
+    }
+
+    /**
+     * Gets the shared client for a cluster, creating it on first use. The transport settings only take effect when the
+     * client is created.
+     *
+     * @param hosts comma separated hosts to connect to
+     * @param port transport port of the hosts
+     * @param cluster name of the cluster
+     * @param sniff whether to discover and connect to the other data nodes of the cluster
+     * @param pingTimeout how long to wait for a node to respond to a ping before treating it as down
+     * @param nodesSamplerInterval how often to check which nodes are connected and healthy
+     * @return client for the cluster
+     */
+    public static synchronized Client getClient(
+            String hosts, int port, String cluster, boolean sniff, String pingTimeout, String nodesSamplerInterval) {
+        final String key = cluster + '/' + hosts + ':' + port;
+        final SharedClient shared = clients.get(key);
+        if (shared != null) {
+            shared.references++;
+            return shared.client;
+        }
+
+        final Settings settings = ImmutableSettings.settingsBuilder().put("cluster.name", cluster)
+                .put("client.transport.sniff", sniff).put("client.transport.ping_timeout", pingTimeout)
+                .put("client.transport.nodes_sampler_interval", nodesSamplerInterval).build();
+
+        final TransportClient client = new TransportClient(settings);
+        for (final String host : hosts.split(",")) {
+            client.addTransportAddress(new InetSocketTransportAddress(host, port));
+        }
+
+        clients.put(key, new SharedClient(client));
+        logger.info("Created transport client for cluster {} using {}:{} (sniff: {})", cluster, hosts, port, sniff);
+        return client;
+    }
+
+    /**
+     * Releases a client obtained from {@link #getClient}, closing it if no other user holds it. Clients that were not
+     * handed out by this factory are ignored.
+     *
+     * @param client client to release
+     */
+    public static synchronized void releaseClient(Client client) {
+        final Iterator<Map.Entry<String, SharedClient>> it = clients.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, SharedClient> entry = it.next();
+            final SharedClient shared = entry.getValue();
+            if (shared.client != client) {
+                continue;
+            }
+
+            if (--shared.references == 0) {
+                it.remove();
+                shared.client.close();
+                logger.info("Closed transport client for {}", entry.getKey());
+            }
+
+            return;
+        }
+    }
+
+    private static final class SharedClient {
+        private final TransportClient client;
+        private int references = 1;
+
+        private SharedClient(TransportClient client) {
+            this.client = client;
+        }
+    }
+}
@@ -40,6 +40,8 @@ import org.apache.commons.lang.time.DateUtils;
 import org.apache.thrift.TException;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.DistanceUnit;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.FilterBuilder;
@@ -104,6 +106,7 @@ import ezbake.data.elastic.thrift.UpdateOptions;
 import ezbake.data.elastic.thrift.UpdateScript;
 import ezbake.data.elastic.thrift.ValueScript;
 import ezbake.data.test.TestUtils;
+import ezbake.thrift.ThriftUtils;
 
 @SuppressWarnings({"StaticNonFinalField"})
 public final class ElasticClientTest {
@@ -282,6 +285,26 @@ public final class ElasticClientTest {
         }
     }
 
+    @Test
+    public void testPutManyInSmallBulks() throws Exception {
+        esSetup.execute(EsSetup.deleteAll());
+        setMappingForTest();
+        client.setBulkOptions(2, new ByteSizeValue(1, ByteSizeUnit.MB), 1, 1, 10);
+
+        final Document invalidDoc = EzElasticTestUtils
+                .generateDocument(TEST_TYPE, "{ THIS OBJECT ISN'T WELL FORMED: JSON : IS IT? :}", new Visibility());
+        final List<Document> docs = Arrays.asList(lincolnMemorialDoc, columbiaDoc, invalidDoc, whiteHouseDoc);
+
+        final List<IndexResponse> result = client.put(docs);
+
+        // Responses come back in the order the documents were given even though they span several bulk requests
+        assertEquals(docs.size(), result.size());
+        for (int i = 0; i < docs.size(); i++) {
+            assertEquals(docs.get(i).get_id(), result.get(i).get_id());
+            assertEquals(docs.get(i) != invalidDoc, result.get(i).isSuccess());
+        }
+    }
+
     @Test
     public void testUpdateScript() throws Exception {
         checkUpdateScript(columbia, columbiaDoc, COMMON_USER_TOKEN);
@@ -320,6 +343,28 @@ public final class ElasticClientTest {
                 whiteHouse, gson.fromJson(resultsVisMatching.get(0).get_jsonObject(), PlaceOfInterest.class));
     }
 
+    @Test
+    public void testGetByIdIsRealTime() throws Exception {
+        final ElasticClient noRefreshClient = new ElasticClient(esSetup.client(), APPLICATION_NAME, false, 1);
+        final Document doc = EzElasticTestUtils.generateDocument(
+                TEST_TYPE, gson.toJson(whiteHouse), new Visibility().setFormalVisibility("A"));
+
+        noRefreshClient.put(Collections.singletonList(doc));
+
+        // Not refreshed yet, but gets by ID should still see it
+        final List<Document> results =
+                noRefreshClient.get(ImmutableSet.of(doc.get_id()), TEST_TYPE, COMMON_USER_TOKEN);
+
+        assertEquals(1, results.size());
+        assertEquals(doc.get_id(), results.get(0).get_id());
+        assertEquals(doc.getVisibility(), results.get(0).getVisibility());
+        assertEquals(whiteHouse, gson.fromJson(results.get(0).get_jsonObject(), PlaceOfInterest.class));
+
+        assertTrue(
+                noRefreshClient.get(ImmutableSet.of(doc.get_id()), TEST_TYPE, TestUtils.createTestToken("B"))
+                        .isEmpty());
+    }
+
     @Test
     public void testGetFields() throws Exception {
         final Document result = client.get(
@@ -336,6 +381,63 @@ public final class ElasticClientTest {
         assertEquals(whiteHouse.getLocation(), gson.fromJson(resultMap.get("location").toString(), Location.class));
     }
 
+    @Test
+    public void testQueryWithoutVisibility() throws Exception {
+        final String query = QueryBuilders.matchPhraseQuery("title", "White House").toString();
+        final SearchResult withVisibility =
+                client.get(query, TEST_TYPE, null, null, null, null, 0, (short) -1, null, COMMON_USER_TOKEN);
+        final Document visibleDoc = withVisibility.getMatchingDocuments().get(0);
+        assertEquals(whiteHouseDoc.getVisibility(), visibleDoc.getVisibility());
+
+        // Platform fields never make it into the returned source
+        final Map<String, Object> source = EzElasticTestUtils.jsonToMap(visibleDoc.get_jsonObject());
+        assertFalse(source.containsKey(ElasticUtils.VISIBILITY_FIELD));
+        assertFalse(source.containsKey(ElasticUtils.PURGE_ID_FIELD));
+        assertFalse(source.containsKey(ElasticUtils.COMPOSITE_FIELD));
+        assertEquals(whiteHouse, gson.fromJson(visibleDoc.get_jsonObject(), PlaceOfInterest.class));
+
+        client.setReturnVisibility(false);
+        try {
+            final SearchResult withoutVisibility =
+                    client.get(query, TEST_TYPE, null, null, null, null, 0, (short) -1, null, COMMON_USER_TOKEN);
+            final Document doc = withoutVisibility.getMatchingDocuments().get(0);
+            assertEquals(new Visibility(), doc.getVisibility());
+            assertEquals(whiteHouse, gson.fromJson(doc.get_jsonObject(), PlaceOfInterest.class));
+        } finally {
+            client.setReturnVisibility(true);
+        }
+    }
+
+    @Test
+    public void testRepeatedQueryPages() throws Exception {
+        final String query = QueryBuilders.matchAllQuery().toString();
+        final Set<String> fields = Sets.newHashSet("title");
+
+        final SearchResult firstPage =
+                client.get(query, TEST_TYPE, null, fields, null, null, 0, (short) 2, null, COMMON_USER_TOKEN);
+        final SearchResult secondPage =
+                client.get(query, TEST_TYPE, null, fields, null, null, 2, (short) 2, null, COMMON_USER_TOKEN);
+
+        // The requested fields are not modified between searches
+        assertEquals(Sets.newHashSet("title"), fields);
+
+        assertEquals(4, firstPage.getTotalHits());
+        assertEquals(4, secondPage.getTotalHits());
+        final Set<String> ids = docListToIdsSet(firstPage.getMatchingDocuments());
+        ids.addAll(docListToIdsSet(secondPage.getMatchingDocuments()));
+        assertEquals(4, ids.size());
+
+        for (final Document doc : secondPage.getMatchingDocuments()) {
+            assertEquals(Collections.singleton("title"), EzElasticTestUtils.jsonToMap(doc.get_jsonObject()).keySet());
+        }
+
+        // Same search with different authorizations must not reuse the visibility filter
+        final SearchResult allVisible = client.get(
+                query, TEST_TYPE, null, fields, null, null, 0, (short) 10, null,
+                TestUtils.createTestToken("A", "B", "C", "E"));
+        assertEquals(8, allVisible.getTotalHits());
+    }
+
     @Test(expected = MalformedQueryException.class)
     public void testQueryMalformed() throws Exception {
         final String malformedQuery = "I CAN HAZ LUCENE :-)";
@@ -734,6 +836,40 @@ public final class ElasticClientTest {
         }
     }
 
+    @Test
+    public void testScroll() throws Exception {
+        final Set<String> expectedIds = Sets.newHashSet(
+                lincolnMemorialDoc.get_id(), columbiaDoc.get_id(), whiteHouseDoc.get_id(),
+                jeffersonMemorialDoc.get_id());
+
+        ScrollPage page = client.openScroll(
+                QueryBuilders.matchAllQuery().toString(), TEST_TYPE, null, 1, COMMON_USER_TOKEN);
+        assertEquals(expectedIds.size(), page.getTotalHits());
+
+        try {
+            // Different authorizations than the scroll was opened with
+            client.nextScroll(page.getScrollId(), TestUtils.createTestToken("A", "B", "E"));
+            fail("Expected exception not thrown");
+        } catch (TException e) {
+            // Expected
+        }
+
+        final Set<String> scrolledIds = new HashSet<>();
+        while (!page.isFinished()) {
+            scrolledIds.addAll(docListToIdsSet(page.getDocuments()));
+            page = client.nextScroll(page.getScrollId(), COMMON_USER_TOKEN);
+        }
+
+        assertEquals(expectedIds, scrolledIds);
+
+        try {
+            client.nextScroll(page.getScrollId(), COMMON_USER_TOKEN);
+            fail("Expected exception not thrown");
+        } catch (TException e) {
+            // Expected, finished scrolls are closed
+        }
+    }
+
     @Test
     public void testDelete() throws Exception {
         client.delete(ImmutableSet.of(whiteHouseDoc.get_id()), TEST_TYPE, COMMON_USER_TOKEN);
@@ -758,6 +894,19 @@ public final class ElasticClientTest {
         assertTrue(resultsVisMatching.isEmpty());
     }
 
+    @Test
+    public void testDeleteWithoutWaitingForVisibility() throws Exception {
+        client.delete(ImmutableSet.of(whiteHouseDoc.get_id()), TEST_TYPE, COMMON_USER_TOKEN, false);
+
+        // Gets by ID are real-time, so the delete is seen before any refresh
+        assertTrue(client.get(ImmutableSet.of(whiteHouseDoc.get_id()), TEST_TYPE, COMMON_USER_TOKEN).isEmpty());
+
+        client.forceIndexRefresh();
+        assertEquals(
+                0, client.count(
+                        ImmutableSet.of(TEST_TYPE), "", ImmutableSet.of(whiteHouseDoc.get_id()), COMMON_USER_TOKEN));
+    }
+
     @Test
     public void testHighlighting() throws Exception {
         final HighlightRequest highlight = new HighlightRequest().setFields(
@@ -1100,6 +1249,64 @@ public final class ElasticClientTest {
         assertTrue(client.get(Sets.newHashSet(purgeDoc.get_id()), TEST_TYPE, COMMON_USER_TOKEN).isEmpty());
     }
 
+    @Test
+    public void testPurgeDocumentsWithoutProvenanceFields() throws Exception {
+        indexLegacyDocuments();
+
+        final PurgeResult purgeResult = client.purge(79472397425L, Sets.newHashSet(9L), 100);
+        assertEquals(Sets.newHashSet(9L), purgeResult.getPurged());
+        assertEquals(Sets.newHashSet(9L), purgeResult.getUnpurged());
+        assertTrue(purgeResult.isIsFinished());
+
+        assertFalse(esSetup.client().prepareGet(APPLICATION_NAME, TEST_TYPE, "legacyPurged").get().isExists());
+
+        // Purging only deletes, the documents that were kept are left as they were
+        final Map<String, Object> kept =
+                esSetup.client().prepareGet(APPLICATION_NAME, TEST_TYPE, "legacyKept").get().getSource();
+        assertFalse(kept.containsKey(ElasticUtils.PURGE_ID_FIELD));
+        assertFalse(kept.containsKey(ElasticUtils.COMPOSITE_FIELD));
+    }
+
+    @Test
+    public void testBackfillProvenanceFields() throws Exception {
+        indexLegacyDocuments();
+
+        assertEquals(3, client.backfillProvenanceFields(2));
+        assertEquals(0, client.backfillProvenanceFields(2));
+
+        final Map<String, Object> kept =
+                esSetup.client().prepareGet(APPLICATION_NAME, TEST_TYPE, "legacyKept").get().getSource();
+        assertEquals(10, ((Number) kept.get(ElasticUtils.PURGE_ID_FIELD)).intValue());
+        assertEquals(false, kept.get(ElasticUtils.COMPOSITE_FIELD));
+        final Map<String, Object> composite =
+                esSetup.client().prepareGet(APPLICATION_NAME, TEST_TYPE, "legacyComposite").get().getSource();
+        assertEquals(true, composite.get(ElasticUtils.COMPOSITE_FIELD));
+
+        // Migrated documents are purged through the provenance fields
+        final PurgeResult purgeResult = client.purge(79472397425L, Sets.newHashSet(9L), 100);
+        assertEquals(Sets.newHashSet(9L), purgeResult.getPurged());
+        assertEquals(Sets.newHashSet(9L), purgeResult.getUnpurged());
+        assertFalse(esSetup.client().prepareGet(APPLICATION_NAME, TEST_TYPE, "legacyPurged").get().isExists());
+    }
+
+    /**
+     * Index documents the way clients did before the provenance fields were added.
+     */
+    private void indexLegacyDocuments() throws TException, IOException {
+        final String[] ids = {"legacyPurged", "legacyComposite", "legacyKept"};
+        final Visibility[] visibilities = {
+                new Visibility().setFormalVisibility("A").setAdvancedMarkings(new AdvancedMarkings().setId(9L)),
+                new Visibility().setFormalVisibility("A")
+                        .setAdvancedMarkings(new AdvancedMarkings().setId(9L).setComposite(true)),
+                new Visibility().setFormalVisibility("A").setAdvancedMarkings(new AdvancedMarkings().setId(10L))};
+        for (int i = 0; i < ids.length; i++) {
+            esSetup.client().prepareIndex(APPLICATION_NAME, TEST_TYPE, ids[i]).setSource(
+                    jsonBuilder().startObject().field("name", ids[i])
+                            .field(ElasticUtils.VISIBILITY_FIELD, ThriftUtils.serializeToBase64(visibilities[i]))
+                            .endObject()).setRefresh(true).get();
+        }
+    }
+
     @Test
     public void testPercolate() throws Exception {
         PercolateQuery percolator = createTestPercolator("foo", new Visibility().setFormalVisibility("A"), null);
@@ -1241,6 +1448,26 @@ public final class ElasticClientTest {
         assertEquals(0, matchesWithSubTokenWithPostFilter.size());
     }
 
+    @Test
+    public void testPercolatorPercolationSecurityWithoutVisibility() throws Exception {
+        // Register through another client so the percolating client has to look the visibility up
+        final ElasticClient otherClient = new ElasticClient(esSetup.client(), APPLICATION_NAME, true, 1);
+        final PercolateQuery percolator =
+                createTestPercolator("restricted", new Visibility().setFormalVisibility("A&B"), null);
+        assertTrue(otherClient.putPercolator(percolator, TestUtils.createTestToken("A", "B")).isSuccess());
+
+        whiteHouseDoc.setPercolate(new PercolateRequest());
+        final List<Document> docsToPercolate = Lists.newArrayList(whiteHouseDoc);
+
+        client.setReturnVisibility(false);
+        try {
+            assertEquals(0, client.percolate(docsToPercolate, true, COMMON_USER_TOKEN).size());
+            assertEquals(1, client.percolate(docsToPercolate, true, TestUtils.createTestToken("A", "B")).size());
+        } finally {
+            client.setReturnVisibility(true);
+        }
+    }
+
     private PercolateQuery createTestPercolator(String id, Visibility visibility, Authorizations auths)
             throws Exception {
         final FilterBuilder geoDistanceFilter =
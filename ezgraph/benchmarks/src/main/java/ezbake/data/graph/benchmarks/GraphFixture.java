@@ -0,0 +1,247 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.thrift.TException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+
+import ezbake.base.thrift.Visibility;
+import ezbake.data.graph.blueprints.schema.DefaultPropertySchemaManager;
+import ezbake.data.graph.blueprints.schema.DefaultSchemaContext;
+import ezbake.data.graph.blueprints.schema.PropertySchemaManager;
+import ezbake.data.graph.blueprints.schema.RdfPropertySchema;
+import ezbake.data.graph.blueprints.schema.SchemaFilterElement;
+import ezbake.data.graph.blueprints.schema.SchemaFilterGraph;
+import ezbake.data.graph.blueprints.visibility.DefaultPermissionContext;
+import ezbake.data.graph.blueprints.visibility.ElementFilter;
+import ezbake.data.graph.blueprints.visibility.PermissionContext;
+import ezbake.data.graph.blueprints.visibility.PropertyFilter;
+import ezbake.data.graph.blueprints.visibility.VisibilityFilterGraph;
+import ezbake.data.test.TestUtils;
+import ezbake.thrift.ThriftUtils;
+
+/**
+ * Shared benchmark fixture: a TinkerGraph populated with visibility-labeled elements and properties, along with the
+ * visibility and schema filter wrappers around it.
+ * <p/>
+ * Visibility {@code i} has the formal visibility {@code A<i>}, and the benchmark user is authorized for every even
+ * {@code i}, so roughly half of the elements and property values are visible. Property keys are schema-enabled keys of
+ * the form {@code <SCHEMA_URI>#p<k>} so the same data can be read through both wrappers. The fixture is generated from
+ * a fixed seed so runs with the same parameters see the same graph.
+ */
+@State(Scope.Benchmark)
+public class GraphFixture {
+
+    /**
+     * Identifier of the schema defining every benchmark property.
+     */
+    public static final String SCHEMA_URI = "http://ezbake/benchmark";
+
+    /**
+     * Label of every benchmark edge.
+     */
+    public static final String EDGE_LABEL = "link";
+
+    /**
+     * Seed for generating the fixture.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * Number of vertices in the graph.
+     */
+    @Param({"1000", "10000"})
+    public int vertexCount;
+
+    /**
+     * Number of outgoing edges per vertex.
+     */
+    @Param({"5"})
+    public int edgeFanOut;
+
+    /**
+     * Number of properties per element.
+     */
+    @Param({"5"})
+    public int propertiesPerElement;
+
+    /**
+     * Number of distinct visibilities across elements and property values.
+     */
+    @Param({"1", "16", "256"})
+    public int visibilityCardinality;
+
+    /**
+     * Unwrapped graph.
+     */
+    public Graph baseGraph;
+
+    /**
+     * Permission context of the benchmark user.
+     */
+    public PermissionContext permissionContext;
+
+    /**
+     * Visibility filter around the base graph.
+     */
+    public Graph visibilityGraph;
+
+    /**
+     * Schema filter around the visibility filter.
+     */
+    public Graph schemaGraph;
+
+    /**
+     * Serialized visibilities used in the graph.
+     */
+    public List<String> visibilities;
+
+    /**
+     * Property keys used on every element.
+     */
+    public List<String> propertyKeys;
+
+    /**
+     * A property value list with one value per visibility, up to {@link #propertiesPerElement} values.
+     */
+    public List<Map<String, Object>> propertyValues;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TException {
+        final Random random = new Random(SEED);
+
+        visibilities = new ArrayList<>(visibilityCardinality);
+        final Set<String> auths = new HashSet<>();
+        for (int i = 0; i < visibilityCardinality; i++) {
+            final Visibility visibility = new Visibility();
+            visibility.setFormalVisibility("A" + i);
+            visibilities.add(ThriftUtils.serializeToBase64(visibility));
+
+            if (i % 2 == 0) {
+                auths.add("A" + i);
+            }
+        }
+
+        final String emptyVisibility = ThriftUtils.serializeToBase64(new Visibility());
+
+        propertyKeys = new ArrayList<>(propertiesPerElement);
+        final Map<String, RDFDatatype> propertyDefinitions = new HashMap<>();
+        for (int k = 0; k < propertiesPerElement; k++) {
+            propertyKeys.add(SCHEMA_URI + "#p" + k);
+            propertyDefinitions.put("p" + k, XSDDatatype.XSDstring);
+        }
+
+        propertyValues = new ArrayList<>();
+        for (int k = 0; k < propertiesPerElement; k++) {
+            propertyValues.add(propertyValue("value" + k, visibilities.get(k % visibilityCardinality)));
+        }
+
+        baseGraph = new TinkerGraph();
+        for (int i = 0; i < vertexCount; i++) {
+            populate(baseGraph.addVertex(i), random, emptyVisibility);
+        }
+
+        for (int i = 0; i < vertexCount; i++) {
+            final Vertex out = baseGraph.getVertex(i);
+            for (int j = 0; j < edgeFanOut; j++) {
+                final Vertex in = baseGraph.getVertex(random.nextInt(vertexCount));
+                final Edge edge = baseGraph.addEdge(i + ":" + j, out, in, EDGE_LABEL);
+                populate(edge, random, emptyVisibility);
+            }
+        }
+
+        permissionContext = new DefaultPermissionContext(TestUtils.createTestToken(auths.toArray(new String[0])));
+        visibilityGraph = new VisibilityFilterGraph(baseGraph, permissionContext);
+
+        final PropertySchemaManager schemaManager = new DefaultPropertySchemaManager();
+        schemaManager.addSchema(new RdfPropertySchema(SCHEMA_URI, propertyDefinitions));
+        schemaGraph = new SchemaFilterGraph(visibilityGraph, new DefaultSchemaContext(schemaManager));
+    }
+
+    /**
+     * Get the identifier of a random vertex.
+     *
+     * @return identifier of a random vertex
+     */
+    public Object randomVertexId() {
+        return ThreadLocalRandom.current().nextInt(vertexCount);
+    }
+
+    /**
+     * Get a random property key.
+     *
+     * @return a random property key
+     */
+    public String randomPropertyKey() {
+        return propertyKeys.get(ThreadLocalRandom.current().nextInt(propertiesPerElement));
+    }
+
+    /**
+     * Construct a property value map.
+     *
+     * @param value property value
+     * @param visibility serialized visibility
+     * @return property value map
+     */
+    public static Map<String, Object> propertyValue(Object value, String visibility) {
+        final Map<String, Object> map = new HashMap<>();
+        map.put(PropertyFilter.VALUE_KEY, value);
+        map.put(PropertyFilter.VISIBILITY_KEY, visibility);
+        return map;
+    }
+
+    /**
+     * Set a random element visibility, the schema property and every benchmark property on an element.
+     *
+     * @param element element to populate
+     * @param random source of randomness
+     * @param emptyVisibility serialized empty visibility
+     */
+    private void populate(Element element, Random random, String emptyVisibility) {
+        element.setProperty(
+                ElementFilter.VISIBILITY_PROPERTY_KEY, visibilities.get(random.nextInt(visibilityCardinality)));
+
+        final List<Map<String, Object>> schemas = new ArrayList<>();
+        schemas.add(propertyValue(SCHEMA_URI, emptyVisibility));
+        element.setProperty(SchemaFilterElement.SCHEMA_PROPERTY_KEY, schemas);
+
+        for (final String key : propertyKeys) {
+            final List<Map<String, Object>> values = new ArrayList<>();
+            values.add(propertyValue("value", visibilities.get(random.nextInt(visibilityCardinality))));
+            element.setProperty(key, values);
+        }
+    }
+}
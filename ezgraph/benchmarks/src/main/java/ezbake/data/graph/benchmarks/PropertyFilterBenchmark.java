@@ -0,0 +1,57 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ezbake.base.thrift.Permission;
+
+/**
+ * Benchmarks for {@link ezbake.data.graph.blueprints.visibility.PropertyFilter}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PropertyFilterBenchmark {
+
+    @Benchmark
+    public void filter(GraphFixture fixture, Blackhole blackhole) {
+        for (final Map<String, Object> value : fixture.permissionContext.getPropertyFilter().filter(
+                (Object) fixture.propertyValues, Permission.READ)) {
+            blackhole.consume(value);
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> modify(GraphFixture fixture) {
+        return fixture.permissionContext.getPropertyFilter().modify(
+                fixture.propertyValues,
+                Collections.singletonList(GraphFixture.propertyValue("new", fixture.visibilities.get(0))));
+    }
+}
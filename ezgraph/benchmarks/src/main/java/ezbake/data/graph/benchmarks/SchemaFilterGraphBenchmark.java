@@ -0,0 +1,68 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * Benchmarks for {@link ezbake.data.graph.blueprints.schema.SchemaFilterGraph} wrapped around a visibility filter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchemaFilterGraphBenchmark {
+
+    @Benchmark
+    public void getProperties(GraphFixture fixture, Blackhole blackhole) {
+        final Vertex v = fixture.schemaGraph.getVertex(fixture.randomVertexId());
+        if (v == null) {
+            return;
+        }
+
+        for (final String key : v.getPropertyKeys()) {
+            blackhole.consume(v.getProperty(key));
+        }
+    }
+
+    @Benchmark
+    public void setProperty(GraphFixture fixture) {
+        final Vertex v = fixture.schemaGraph.getVertex(fixture.randomVertexId());
+        if (v == null) {
+            return;
+        }
+
+        try {
+            v.setProperty(
+                    fixture.randomPropertyKey(),
+                    Collections.singletonList(GraphFixture.propertyValue("value", fixture.visibilities.get(0))));
+        } catch (final IllegalArgumentException e) {
+            // Permission denied on the element.
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.blueprints.bulk;
+
+/**
+ * An edge to be written by a {@link BulkLoader}. The vertices it connects are referenced by identifier and must have
+ * been loaded earlier by the same loader.
+ */
+public class BulkEdge extends BulkElement {
+
+    /**
+     * Identifier of the tail vertex.
+     */
+    private final Object outVertexId;
+
+    /**
+     * Identifier of the head vertex.
+     */
+    private final Object inVertexId;
+
+    /**
+     * Edge label.
+     */
+    private final String label;
+
+    /**
+     * Construct a new bulk edge.
+     *
+     * @param id identifier of the edge
+     * @param outVertexId identifier of the tail vertex
+     * @param inVertexId identifier of the head vertex
+     * @param label edge label
+     */
+    public BulkEdge(Object id, Object outVertexId, Object inVertexId, String label) {
+        super(id);
+        this.outVertexId = outVertexId;
+        this.inVertexId = inVertexId;
+        this.label = label;
+    }
+
+    /**
+     * Get the identifier of the tail vertex.
+     *
+     * @return identifier of the tail vertex
+     */
+    public Object getOutVertexId() {
+        return outVertexId;
+    }
+
+    /**
+     * Get the identifier of the head vertex.
+     *
+     * @return identifier of the head vertex
+     */
+    public Object getInVertexId() {
+        return inVertexId;
+    }
+
+    /**
+     * Get the edge label.
+     *
+     * @return edge label
+     */
+    public String getLabel() {
+        return label;
+    }
+}
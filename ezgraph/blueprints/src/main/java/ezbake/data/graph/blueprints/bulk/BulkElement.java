@@ -0,0 +1,85 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.blueprints.bulk;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An element to be written by a {@link BulkLoader}. Properties are stored exactly as they would be passed to
+ * {@link com.tinkerpop.blueprints.Element#setProperty(String, Object)} on a visibility filtered element, that is, the
+ * element visibility under {@link ezbake.data.graph.blueprints.visibility.ElementFilter#VISIBILITY_PROPERTY_KEY} and
+ * every other property as a list of property value maps.
+ */
+public abstract class BulkElement {
+
+    /**
+     * Identifier of the element.
+     */
+    private final Object id;
+
+    /**
+     * Properties of the element, in insertion order.
+     */
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+
+    /**
+     * Construct a new bulk element.
+     *
+     * @param id identifier of the element
+     */
+    protected BulkElement(Object id) {
+        this.id = id;
+    }
+
+    /**
+     * Get the identifier of the element.
+     *
+     * @return identifier of the element
+     */
+    public Object getId() {
+        return id;
+    }
+
+    /**
+     * Get the value of a property.
+     *
+     * @param key property key
+     * @return property value or null if no such property has been set
+     */
+    public Object getProperty(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * Set the value of a property, replacing any existing value.
+     *
+     * @param key property key
+     * @param value property value
+     */
+    public void setProperty(String key, Object value) {
+        properties.put(key, value);
+    }
+
+    /**
+     * Get an unmodifiable view of all properties of the element.
+     *
+     * @return all properties of the element
+     */
+    public Map<String, Object> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+}
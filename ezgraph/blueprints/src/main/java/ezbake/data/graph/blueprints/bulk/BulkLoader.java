@@ -0,0 +1,344 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.blueprints.bulk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.wrappers.batch.BatchGraph;
+
+import ezbake.base.thrift.Permission;
+import ezbake.base.thrift.Visibility;
+import ezbake.data.graph.blueprints.schema.PropertyKeyParser;
+import ezbake.data.graph.blueprints.schema.SchemaContext;
+import ezbake.data.graph.blueprints.schema.SchemaFilterElement;
+import ezbake.data.graph.blueprints.schema.SchemaViolationException;
+import ezbake.data.graph.blueprints.visibility.ElementFilter;
+import ezbake.data.graph.blueprints.visibility.PermissionContext;
+import ezbake.data.graph.blueprints.visibility.PropertyFilter;
+import ezbake.data.graph.blueprints.visibility.VisibilityDeserializer;
+import ezbake.data.graph.blueprints.visibility.VisibilityFilterExceptionFactory;
+
+/**
+ * Loads streams of new vertices and edges into a graph with the same access and schema checks that {@link
+ * ezbake.data.graph.blueprints.visibility.VisibilityFilterGraph} and {@link
+ * ezbake.data.graph.blueprints.schema.SchemaFilterGraph} apply, but without going through the element wrappers.
+ * <p/>
+ * Loading an element is equivalent to adding it to a schema filtered, visibility filtered graph, setting its
+ * visibility, and then setting each of its properties. All checks for an element are made before anything is written,
+ * so an element that fails validation is never partially loaded. Because every element is new, property values are
+ * applied with {@link PropertyFilter#modify} to an empty list, exactly as the first write through the wrappers would
+ * be. Element permission decisions are cached by serialized visibility for the lifetime of the loader, and schema keys
+ * are resolved through the caching {@link SchemaContext#validateSchemaProperty}.
+ * <p/>
+ * Writes go through a {@link BatchGraph}, which buffers mutations and commits them in transactions of a configurable
+ * size. Edges may only reference vertices loaded earlier by the same loader. Loaders are not thread-safe.
+ */
+public class BulkLoader {
+
+    /**
+     * Default number of mutations per transaction.
+     */
+    public static final long DEFAULT_BUFFER_SIZE = BatchGraph.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Buffered graph to which elements are written.
+     */
+    private final BatchGraph<?> batchGraph;
+
+    /**
+     * Context for evaluating permissions on elements and properties.
+     */
+    private final PermissionContext permissionContext;
+
+    /**
+     * Context for validating properties against schemas, or null if the graph is not schema-enabled.
+     */
+    private final SchemaContext schemaContext;
+
+    /**
+     * Permissions granted by each serialized element visibility seen so far. The null key holds the permissions for
+     * elements without a visibility.
+     */
+    private final Map<Object, Set<Permission>> elementPermissionCache = new HashMap<>();
+
+    /**
+     * Number of elements loaded so far.
+     */
+    private long elementCount;
+
+    /**
+     * Construct a new loader for a graph without schemas, using the default buffer size.
+     *
+     * @param baseGraph graph to load elements into
+     * @param permissionContext context for evaluating permissions on elements and properties
+     */
+    public BulkLoader(Graph baseGraph, PermissionContext permissionContext) {
+        this(baseGraph, permissionContext, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a new loader.
+     *
+     * @param baseGraph graph to load elements into
+     * @param permissionContext context for evaluating permissions on elements and properties
+     * @param schemaContext context for validating properties against schemas, or null if the graph does not use
+     * schemas
+     * @param bufferSize number of mutations per transaction
+     */
+    public BulkLoader(Graph baseGraph, PermissionContext permissionContext, SchemaContext schemaContext,
+            long bufferSize) {
+        this.batchGraph = BatchGraph.wrap(baseGraph, bufferSize);
+        this.permissionContext = permissionContext;
+        this.schemaContext = schemaContext;
+    }
+
+    /**
+     * Load a stream of vertices and edges and commit any remaining buffered mutations.
+     *
+     * @param elements vertices and edges to load
+     * @return total number of elements loaded by this loader
+     * @throws IllegalArgumentException if an element fails permission or schema validation. Elements preceding the
+     * failed element will have been loaded.
+     */
+    public long load(Iterable<? extends BulkElement> elements) {
+        for (final BulkElement element : elements) {
+            if (element instanceof BulkVertex) {
+                addVertex((BulkVertex) element);
+            } else if (element instanceof BulkEdge) {
+                addEdge((BulkEdge) element);
+            } else {
+                throw new IllegalArgumentException(
+                        String.format("Unsupported bulk element type: %s", element.getClass().getName()));
+            }
+        }
+
+        commit();
+
+        return elementCount;
+    }
+
+    /**
+     * Load a single vertex. The vertex may not be durable until the next commit.
+     *
+     * @param bulkVertex vertex to load
+     */
+    public void addVertex(BulkVertex bulkVertex) {
+        final Map<String, Object> properties = prepareProperties(bulkVertex);
+        final Vertex vertex = batchGraph.addVertex(bulkVertex.getId());
+        setProperties(vertex, properties);
+        elementCount++;
+    }
+
+    /**
+     * Load a single edge. The edge may not be durable until the next commit.
+     *
+     * @param bulkEdge edge to load
+     */
+    public void addEdge(BulkEdge bulkEdge) {
+        final Map<String, Object> properties = prepareProperties(bulkEdge);
+        final Vertex outVertex = getLoadedVertex(bulkEdge.getOutVertexId());
+        final Vertex inVertex = getLoadedVertex(bulkEdge.getInVertexId());
+        final Edge edge = batchGraph.addEdge(bulkEdge.getId(), outVertex, inVertex, bulkEdge.getLabel());
+        setProperties(edge, properties);
+        elementCount++;
+    }
+
+    /**
+     * Commit any buffered mutations to the base graph.
+     */
+    public void commit() {
+        batchGraph.commit();
+    }
+
+    /**
+     * Get the number of elements loaded so far.
+     *
+     * @return number of elements loaded so far
+     */
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Validate an element and compute the properties to write for it.
+     *
+     * @param element element to validate
+     * @return properties to write, with property values lacking write permission removed
+     * @throws IllegalArgumentException if the element fails permission or schema validation
+     */
+    private Map<String, Object> prepareProperties(BulkElement element) {
+        final Map<String, Object> properties = element.getProperties();
+        final Object visibility = properties.get(ElementFilter.VISIBILITY_PROPERTY_KEY);
+
+        if (visibility != null) {
+            // The element has no visibility before this one is set.
+            assertAnyElementPermission(null, Permission.MANAGE_VISIBILITY);
+            permissionContext.getElementVisibilityDeserializer().deserialize(visibility);
+        }
+
+        if (schemaContext != null) {
+            validateSchemas(properties);
+        }
+
+        final Map<String, Object> prepared = new LinkedHashMap<>();
+        if (visibility != null) {
+            prepared.put(ElementFilter.VISIBILITY_PROPERTY_KEY, visibility);
+        }
+
+        for (final Map.Entry<String, Object> entry : properties.entrySet()) {
+            final String key = entry.getKey();
+            if (ElementFilter.VISIBILITY_PROPERTY_KEY.equals(key)) {
+                continue;
+            }
+
+            assertAnyElementPermission(visibility, Permission.WRITE);
+            prepared.put(key, getWritableValues(entry.getValue()));
+        }
+
+        return prepared;
+    }
+
+    /**
+     * Validate the properties of an element against the schema context, as {@link SchemaFilterElement} would.
+     *
+     * @param properties properties of the element
+     * @throws SchemaViolationException if any property violates the schemas in the context
+     */
+    @SuppressWarnings("unchecked")
+    private void validateSchemas(Map<String, Object> properties) throws SchemaViolationException {
+        final PropertyFilter propertyFilter = permissionContext.getPropertyFilter();
+        final Set<String> elementSchemas = new HashSet<>();
+
+        final Object schemaValue = properties.get(SchemaFilterElement.SCHEMA_PROPERTY_KEY);
+        if (schemaValue != null) {
+            propertyFilter.validate(schemaValue);
+            schemaContext.validateSchemaUpdate((List<Map<String, Object>>) schemaValue);
+            for (final Map<String, Object> m : (List<Map<String, Object>>) schemaValue) {
+                elementSchemas.add((String) m.get(PropertyFilter.VALUE_KEY));
+            }
+        }
+
+        final PropertyKeyParser parser = schemaContext.getPropertyKeyParser();
+        for (final Map.Entry<String, Object> entry : properties.entrySet()) {
+            final String key = entry.getKey();
+            if (ElementFilter.VISIBILITY_PROPERTY_KEY.equals(key) || SchemaFilterElement.SCHEMA_PROPERTY_KEY.equals(
+                    key)) {
+                continue;
+            }
+
+            final List<Map<String, Object>> values = propertyFilter.cast(entry.getValue());
+
+            final String schemaIdentifier = parser.getSchemaIdentifier(key);
+            if (!elementSchemas.contains(schemaIdentifier)) {
+                throw new SchemaViolationException(
+                        String.format("Element does not contain schema: %s", schemaIdentifier));
+            }
+
+            final List<Object> propertyValues = new ArrayList<>(values.size());
+            for (final Map<String, Object> m : values) {
+                propertyValues.add(m.get(PropertyFilter.VALUE_KEY));
+            }
+            schemaContext.validateSchemaProperty(key, propertyValues);
+        }
+    }
+
+    /**
+     * Return the property values to write for a new element, as {@link PropertyFilter#modify} computes them when the
+     * element has no existing values.
+     *
+     * @param object property value object
+     * @return writable property values
+     */
+    private List<Map<String, Object>> getWritableValues(Object object) {
+        return permissionContext.getPropertyFilter().modify(null, object);
+    }
+
+    /**
+     * Return the permissions granted by a serialized visibility, using cached decisions.
+     *
+     * @param cache cache of decisions for visibilities deserialized by the deserializer
+     * @param deserializer deserializer for the visibility
+     * @param visibility serialized visibility, or null for an element without a visibility
+     * @return permissions granted by the visibility
+     */
+    private Set<Permission> getPermissions(Map<Object, Set<Permission>> cache, VisibilityDeserializer deserializer,
+            Object visibility) {
+        Set<Permission> ps = cache.get(visibility);
+        if (ps == null) {
+            final Visibility v = visibility == null ? new Visibility() : deserializer.deserialize(visibility);
+            ps = permissionContext.getPermissions(v);
+            cache.put(visibility, ps);
+        }
+
+        return ps;
+    }
+
+    /**
+     * Assert that a serialized element visibility grants any of the given permissions.
+     *
+     * @param visibility serialized visibility, or null for an element without a visibility
+     * @param permissions permissions to check
+     * @throws IllegalArgumentException if none of the permissions are granted
+     */
+    private void assertAnyElementPermission(Object visibility, Permission... permissions) {
+        final Set<Permission> ps = getPermissions(elementPermissionCache,
+                permissionContext.getElementVisibilityDeserializer(), visibility);
+        for (final Permission p : permissions) {
+            if (ps.contains(p)) {
+                return;
+            }
+        }
+
+        throw VisibilityFilterExceptionFactory.permissionDenied();
+    }
+
+    /**
+     * Get a vertex loaded earlier by this loader.
+     *
+     * @param id identifier of the vertex
+     * @return the loaded vertex
+     * @throws IllegalArgumentException if no vertex with the identifier has been loaded
+     */
+    private Vertex getLoadedVertex(Object id) {
+        final Vertex vertex = batchGraph.getVertex(id);
+        if (vertex == null) {
+            throw new IllegalArgumentException(String.format("Vertex has not been loaded: %s", id));
+        }
+
+        return vertex;
+    }
+
+    /**
+     * Set prepared properties on a newly added element.
+     *
+     * @param element element to set the properties on
+     * @param properties prepared properties
+     */
+    private static void setProperties(Element element, Map<String, Object> properties) {
+        for (final Map.Entry<String, Object> entry : properties.entrySet()) {
+            element.setProperty(entry.getKey(), entry.getValue());
+        }
+    }
+}
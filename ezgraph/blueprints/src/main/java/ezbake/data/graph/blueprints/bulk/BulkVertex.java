@@ -0,0 +1,30 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.blueprints.bulk;
+
+/**
+ * A vertex to be written by a {@link BulkLoader}.
+ */
+public class BulkVertex extends BulkElement {
+
+    /**
+     * Construct a new bulk vertex.
+     *
+     * @param id identifier of the vertex
+     */
+    public BulkVertex(Object id) {
+        super(id);
+    }
+}
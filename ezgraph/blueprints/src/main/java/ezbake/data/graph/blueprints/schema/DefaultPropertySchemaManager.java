@@ -15,30 +15,30 @@
 package ezbake.data.graph.blueprints.schema;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Allows addition of schemas and has accessor methods for those schemas as well as convenience methods for listing all
  * of the URIs at which it knows schemas.  'URI' is used interchangeably with 'schema identifier' as it is intended that
- * all schema identifiers known by this class be URIs in line with RDF style.
+ * all schema identifiers known by this class be URIs in line with RDF style. Safe for use by concurrent readers and
+ * writers.
  */
 public class DefaultPropertySchemaManager implements PropertySchemaManager {
 
     /**
      * Map of URI/Identifier to Schema of which this manager keeps track.
      */
-    private final Map<String, PropertySchema> schemas = new HashMap<>();
+    private final ConcurrentMap<String, PropertySchema> schemas = new ConcurrentHashMap<>();
 
     @Override
     public void addSchema(PropertySchema propertySchema) throws SchemaViolationException {
         final String uri = propertySchema.getIdentifier();
-        if (schemas.get(uri) != null) {
+        if (schemas.putIfAbsent(uri, propertySchema) != null) {
             throw new SchemaViolationException(
                     String.format("Schema already exists: %s! Cannot update or overwrite.", uri));
         }
-        schemas.put(uri, propertySchema);
     }
 
     @Override
@@ -17,6 +17,8 @@ package ezbake.data.graph.blueprints.schema;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.thrift.TException;
@@ -29,6 +31,9 @@ import ezbake.thrift.ThriftUtils;
  * A typical SchemaContext that uses a {@link PropertySchemaManager} to keep track of schemas. It is intended that
  * schema identifiers will be of an RDF styled format, for example: {@code <uri>#<propertyName>} and so 'URI' is used
  * synonymously with schema's 'identifier'.
+ * <p/>
+ * Schemas cannot be removed or overwritten once added to a {@link PropertySchemaManager}, so this context caches the
+ * schema resolved for each valid property key and validates subsequent values for that key against it directly.
  */
 public class DefaultSchemaContext extends SchemaContext {
 
@@ -38,6 +43,11 @@ public class DefaultSchemaContext extends SchemaContext {
      */
     private static final Boolean DELETE_FLAG_TRUE = true;
 
+    /**
+     * Parser for property keys. Shared across all instances of context because it has no state.
+     */
+    private static final PropertyKeyParser propertyKeyParser = new PropertyKeyParser();
+
     /**
      * SchemaManager that keeps track of schemas available in this context.
      */
@@ -49,6 +59,12 @@ public class DefaultSchemaContext extends SchemaContext {
      */
     private final String emptyVisibility;
 
+    /**
+     * Property keys that have passed {@link #validateSchemaKey}, mapped to their resolved schema and property name.
+     * Bounded by the number of properties defined across all known schemas.
+     */
+    private final ConcurrentMap<String, ResolvedPropertyKey> resolvedKeys = new ConcurrentHashMap<>();
+
     /**
      * Constructs a new DefaultSchemaContext with the specified PropertySchemaManager
      *
@@ -74,8 +90,28 @@ public class DefaultSchemaContext extends SchemaContext {
     @Override
     public void validateSchemaKeyValue(String identifier, String propertyName, Object value)
             throws SchemaViolationException {
-        schemaManager.validateSchemaExists(identifier);
-        schemaManager.getSchema(identifier).validateKeyValuePair(propertyName, value);
+        final PropertySchema schema = schemaManager.getSchema(identifier);
+        if (schema == null) {
+            schemaManager.validateSchemaExists(identifier);
+        }
+        schema.validateKeyValuePair(propertyName, value);
+    }
+
+    @Override
+    public void validateSchemaProperty(String key, Iterable<?> values) throws SchemaViolationException {
+        ResolvedPropertyKey resolved = resolvedKeys.get(key);
+        if (resolved == null) {
+            final String schemaIdentifier = propertyKeyParser.getSchemaIdentifier(key);
+            final String propertyName = propertyKeyParser.getPropertyName(key);
+
+            validateSchemaKey(schemaIdentifier, propertyName);
+            resolved = new ResolvedPropertyKey(schemaManager.getSchema(schemaIdentifier), propertyName);
+            resolvedKeys.putIfAbsent(key, resolved);
+        }
+
+        for (final Object value : values) {
+            resolved.schema.validateKeyValuePair(resolved.propertyName, value);
+        }
     }
 
     @Override
@@ -130,6 +166,27 @@ public class DefaultSchemaContext extends SchemaContext {
 
     @Override
     public PropertyKeyParser getPropertyKeyParser() throws SchemaViolationException {
-        return new PropertyKeyParser();
+        return propertyKeyParser;
+    }
+
+    /**
+     * A validated property key resolved to the schema that defines it.
+     */
+    private static final class ResolvedPropertyKey {
+
+        /**
+         * Schema that defines the property.
+         */
+        private final PropertySchema schema;
+
+        /**
+         * Name of the property within the schema.
+         */
+        private final String propertyName;
+
+        ResolvedPropertyKey(PropertySchema schema, String propertyName) {
+            this.schema = schema;
+            this.propertyName = propertyName;
+        }
     }
 }
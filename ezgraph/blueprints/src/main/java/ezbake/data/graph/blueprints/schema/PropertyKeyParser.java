@@ -16,8 +16,12 @@ package ezbake.data.graph.blueprints.schema;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
- * Provides methods that parse out and validate a schema enabled property key's components.
+ * Provides methods that parse out and validate a schema enabled property key's components. Parsed keys are cached, so
+ * parsing the same key repeatedly does not split it again. Instances are stateless and may be shared.
  */
 public class PropertyKeyParser {
 
@@ -32,16 +36,44 @@ public class PropertyKeyParser {
     private static final String VALID_SCHEMA_KEY_FORMAT =
             String.format("<schemaIdentifier>%s<propertyName>", SCHEMA_SEPARATOR);
 
+    /**
+     * Default maximum number of parsed keys to cache.
+     */
+    private static final int DEFAULT_MAXIMUM_CACHE_SIZE = 10000;
+
+    /**
+     * Cache of valid property keys to their components. Invalid keys are not cached.
+     */
+    private static final Cache<String, String[]> parsedKeyCache =
+            CacheBuilder.newBuilder().maximumSize(DEFAULT_MAXIMUM_CACHE_SIZE).build();
+
     /**
      * Splits and validates a property key into schema identifier and property name.
      *
      * @param propertyKey the property key to split and validate
-     * @return a {@code String[]} that contains 0: schema identifier and 1: property name
+     * @return a {@code String[]} that contains 0: schema identifier and 1: property name. The array is shared and
+     * must not be modified.
      */
     private static String[] getParsedPropertyKey(String propertyKey) {
         if (StringUtils.isBlank(propertyKey)) {
             throw new SchemaViolationException("Property key must not be blank!");
         }
+
+        String[] keyComponents = parsedKeyCache.getIfPresent(propertyKey);
+        if (keyComponents == null) {
+            keyComponents = splitPropertyKey(propertyKey);
+            parsedKeyCache.put(propertyKey, keyComponents);
+        }
+        return keyComponents;
+    }
+
+    /**
+     * Splits and validates a non-blank property key into schema identifier and property name.
+     *
+     * @param propertyKey the property key to split and validate
+     * @return a {@code String[]} that contains 0: schema identifier and 1: property name
+     */
+    private static String[] splitPropertyKey(String propertyKey) {
         final String[] keyComponents = propertyKey.split(SCHEMA_SEPARATOR);
         if (keyComponents.length != 2 || propertyKey.startsWith(SCHEMA_SEPARATOR)) {
             throw new SchemaViolationException(
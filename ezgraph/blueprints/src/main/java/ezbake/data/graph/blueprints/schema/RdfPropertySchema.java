@@ -70,8 +70,7 @@ public class RdfPropertySchema implements PropertySchema {
         if (propertyDefinition == null) {
             return false;
         } else {
-            
-            return propertyDefinitions.get(key).isValidValue(value);
+            return propertyDefinition.isValidValue(value);
         }
     }
 
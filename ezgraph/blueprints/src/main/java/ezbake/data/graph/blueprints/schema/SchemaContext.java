@@ -118,6 +118,28 @@ public abstract class SchemaContext {
     public abstract void validateSchemaKeyValue(String identifier, String propertyName, Object value)
             throws SchemaViolationException;
 
+    /**
+     * Validates a schema-enabled property key and each of the values to be stored under it. Equivalent to parsing the
+     * key with the {@linkplain #getPropertyKeyParser() property key parser}, calling {@link #validateSchemaKey} and
+     * then calling {@link #validateSchemaKeyValue} for every value. Implementations may cache the result of resolving
+     * the key.
+     *
+     * @param key the schema-enabled property key, {@code <schemaIdentifier>#<propertyName>}
+     * @param values the values of the property
+     * @throws SchemaViolationException thrown if the key cannot be parsed, the schema/property combination cannot be
+     * found, or any value is not valid within the schema
+     */
+    public void validateSchemaProperty(String key, Iterable<?> values) throws SchemaViolationException {
+        final PropertyKeyParser parser = getPropertyKeyParser();
+        final String schemaIdentifier = parser.getSchemaIdentifier(key);
+        final String propertyName = parser.getPropertyName(key);
+
+        validateSchemaKey(schemaIdentifier, propertyName);
+        for (final Object value : values) {
+            validateSchemaKeyValue(schemaIdentifier, propertyName, value);
+        }
+    }
+
     /**
      * Validates a change in this context. This may be necessary when setting the {@linkplain
      * SchemaFilterElement#SCHEMA_PROPERTY_KEY schema property}  to a new value.
@@ -57,10 +57,29 @@ public class SchemaFilterElement implements Element {
     private final SchemaContext context;
 
     /**
-     * PropertyFilter used for validating property structure and other useful methods.
+     * PropertyFilter used for validating property structure and other useful methods. Shared across all elements
+     * because it has no state.
      */
     //TODO: @charles moves shared methods into new class in shared package.
-    private final PropertyFilter propertyFilter;
+    private static final PropertyFilter propertyFilter = new PropertyFilter(
+            new PermissionContext() {
+                private final VisibilityDeserializer visibilityDeserializer = new NullVisibilityDeserializer();
+
+                @Override
+                public Set<Permission> getPermissions(Visibility visibility) {
+                    return null;
+                }
+
+                @Override
+                public VisibilityDeserializer getElementVisibilityDeserializer() {
+                    return visibilityDeserializer;
+                }
+
+                @Override
+                public VisibilityDeserializer getPropertyVisibilityDeserializer() {
+                    return visibilityDeserializer;
+                }
+            });
 
     /**
      * Constructs a new SchemaFilterElement wrapping the given Element and in the given SchemaContext.
@@ -71,24 +90,6 @@ public class SchemaFilterElement implements Element {
     public SchemaFilterElement(Element element, SchemaContext context) {
         this.element = element;
         this.context = context;
-
-        propertyFilter = new PropertyFilter(
-                new PermissionContext() {
-                    @Override
-                    public Set<Permission> getPermissions(Visibility visibility) {
-                        return null;
-                    }
-
-                    @Override
-                    public VisibilityDeserializer getElementVisibilityDeserializer() {
-                        return new NullVisibilityDeserializer();
-                    }
-
-                    @Override
-                    public VisibilityDeserializer getPropertyVisibilityDeserializer() {
-                        return new NullVisibilityDeserializer();
-                    }
-                });
     }
 
     /**
@@ -197,18 +198,12 @@ public class SchemaFilterElement implements Element {
             context.validateSchemaUpdate((List<Map<String, Object>>) value);
         } else if (!isVisibilityKey(key)) {
             //All other keys, except visibility which is schema independent:
-            final PropertyKeyParser parser = context.getPropertyKeyParser();
-
-            final String schemaIdentifier = parser.getSchemaIdentifier(key);
-            final String propertyName = parser.getPropertyName(key);
+            final String schemaIdentifier = context.getPropertyKeyParser().getSchemaIdentifier(key);
 
             validateSchemaWithElement(
                     (List<Map<String, Object>>) element.getProperty(SCHEMA_PROPERTY_KEY), schemaIdentifier);
 
-            context.validateSchemaKey(parser.getSchemaIdentifier(key), parser.getPropertyName(key));
-            for (final Object aValue : getPropertyValues(value)) {
-                context.validateSchemaKeyValue(schemaIdentifier, propertyName, aValue);
-            }
+            context.validateSchemaProperty(key, getPropertyValues(value));
         }
         element.setProperty(key, value);
     }
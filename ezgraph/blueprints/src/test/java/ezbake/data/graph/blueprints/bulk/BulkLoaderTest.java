@@ -0,0 +1,159 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.graph.blueprints.bulk;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import ezbake.base.thrift.Permission;
+import ezbake.base.thrift.Visibility;
+import ezbake.data.graph.blueprints.visibility.ElementFilter;
+import ezbake.data.graph.blueprints.visibility.MockPermissionContext;
+import ezbake.data.graph.blueprints.visibility.PropertyValueMap;
+import ezbake.data.graph.blueprints.visibility.VisibilityFilterGraph;
+import ezbake.thrift.ThriftUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BulkLoaderTest {
+
+    private MockPermissionContext ctx;
+    private Visibility visWritable;
+    private Visibility visReadOnly;
+    private Graph g;
+    private BulkLoader loader;
+
+    @Before
+    public void setUp() {
+        ctx = new MockPermissionContext();
+        ctx.setDefaultPermissions(Permission.READ, Permission.WRITE, Permission.MANAGE_VISIBILITY);
+
+        visWritable = new Visibility();
+        visWritable.setFormalVisibility("U");
+
+        visReadOnly = new Visibility();
+        visReadOnly.setFormalVisibility("S");
+        ctx.setPermissions(visReadOnly, Permission.READ);
+
+        g = new TinkerGraph();
+        loader = new BulkLoader(g, ctx);
+    }
+
+    @Test
+    public void testLoadVerticesAndEdges() {
+        BulkVertex v1 = new BulkVertex("v1");
+        v1.setProperty("foo", Arrays.asList(new PropertyValueMap("a", visWritable)));
+        BulkVertex v2 = new BulkVertex("v2");
+        BulkEdge e = new BulkEdge("e", "v1", "v2", "label");
+        e.setProperty("bar", Arrays.asList(new PropertyValueMap("b", visWritable)));
+
+        assertEquals(3, loader.load(Arrays.asList(v1, v2, e)));
+
+        Vertex bv1 = g.getVertex("v1");
+        assertNotNull(bv1);
+        assertNotNull(g.getVertex("v2"));
+        assertEquals(1, ((List) bv1.getProperty("foo")).size());
+
+        Edge be = bv1.getEdges(Direction.OUT, "label").iterator().next();
+        assertEquals("v2", be.getVertex(Direction.IN).getId());
+        assertEquals(1, ((List) be.getProperty("bar")).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUnwritableValuesAreDropped() {
+        BulkVertex v = new BulkVertex("v");
+        v.setProperty("foo", Arrays.asList(
+                new PropertyValueMap("a", visWritable),
+                new PropertyValueMap("a", visWritable),
+                new PropertyValueMap("b", visReadOnly)));
+
+        loader.load(Arrays.asList(v));
+
+        List<Map<String, Object>> values = g.getVertex("v").getProperty("foo");
+        assertEquals(1, values.size());
+        assertEquals("a", values.get(0).get("value"));
+    }
+
+    @Test
+    public void testValuesMatchWrapperWrite() {
+        List<PropertyValueMap> values = Arrays.asList(
+                new PropertyValueMap("a", visWritable),
+                new PropertyValueMap("b", visWritable),
+                new PropertyValueMap("a", visWritable, true),
+                new PropertyValueMap("c", visReadOnly),
+                new PropertyValueMap("b", visWritable));
+
+        BulkVertex v = new BulkVertex("v");
+        v.setProperty("foo", values);
+        loader.load(Arrays.asList(v));
+
+        Graph wrapperBase = new TinkerGraph();
+        new VisibilityFilterGraph(wrapperBase, ctx).addVertex("v").setProperty("foo", values);
+
+        List<?> expected = wrapperBase.getVertex("v").getProperty("foo");
+        assertEquals(1, expected.size());
+        assertEquals(expected, g.getVertex("v").getProperty("foo"));
+    }
+
+    @Test
+    public void testElementVisibility() throws TException {
+        BulkVertex v = new BulkVertex("v");
+        v.setProperty(ElementFilter.VISIBILITY_PROPERTY_KEY, ThriftUtils.serializeToBase64(visWritable));
+
+        loader.load(Arrays.asList(v));
+
+        assertNotNull(g.getVertex("v").getProperty(ElementFilter.VISIBILITY_PROPERTY_KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPropertiesRequireElementWritePermission() throws TException {
+        BulkVertex v = new BulkVertex("v");
+        v.setProperty(ElementFilter.VISIBILITY_PROPERTY_KEY, ThriftUtils.serializeToBase64(visReadOnly));
+        v.setProperty("foo", Arrays.asList(new PropertyValueMap("a", visWritable)));
+
+        try {
+            loader.load(Arrays.asList(v));
+        } finally {
+            // Nothing is written for an element that fails validation.
+            assertNull(g.getVertex("v"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedPropertyValue() {
+        BulkVertex v = new BulkVertex("v");
+        v.setProperty("foo", "not a list");
+
+        loader.load(Arrays.asList(v));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEdgeRequiresLoadedVertices() {
+        loader.load(Arrays.asList(new BulkEdge("e", "v1", "v2", "label")));
+    }
+}
@@ -16,6 +16,7 @@ package ezbake.data.graph.blueprints.schema;
 
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -107,6 +108,44 @@ public class DefaultSchemaContextTest {
         }
     }
 
+    @Test
+    public void testValidateProperty() throws SchemaViolationException {
+        final String key = SchemaTestHelpers.ELEMENT_STARTING_SCHEMA + "#" + SCHEMA_PROPERTY;
+
+        // Validate twice so the second call goes through the resolved key.
+        context.validateSchemaProperty(key, Arrays.asList(11.0, 12.0));
+        context.validateSchemaProperty(key, Arrays.asList(13.0));
+
+        try {
+            context.validateSchemaProperty(key, Arrays.asList(11.0, "invalidValue"));
+            fail();
+        } catch (final SchemaViolationException e) {
+            //expected. eat.
+        }
+
+        try {
+            context.validateSchemaProperty(
+                    SchemaTestHelpers.ELEMENT_STARTING_SCHEMA + "#non-existent-property", Arrays.asList(11.0));
+            fail();
+        } catch (final SchemaViolationException e) {
+            //expected. eat.
+        }
+
+        try {
+            context.validateSchemaProperty("non-existent-schema#" + SCHEMA_PROPERTY, Arrays.asList(11.0));
+            fail();
+        } catch (final SchemaViolationException e) {
+            //expected. eat.
+        }
+
+        try {
+            context.validateSchemaProperty(SCHEMA_PROPERTY, Arrays.asList(11.0));
+            fail();
+        } catch (final SchemaViolationException e) {
+            //expected. eat.
+        }
+    }
+
     @Test(expected = SchemaViolationException.class)
     public void testValidateSchemaUpdateDoesntAllowNullSchemaValue() {
         final List<Map<String, Object>> schemaValue = SchemaTestHelpers.getStartingSchemaValue();
@@ -16,6 +16,7 @@
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.thrift.TException;
@@ -24,6 +25,8 @@ import org.glassfish.grizzly.filterchain.NextAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.tinkerpop.rexster.filter.AbstractSecurityFilter;
 import com.tinkerpop.rexster.protocol.msg.MessageType;
 import com.tinkerpop.rexster.protocol.msg.SessionRequestMessage;
@@ -43,10 +46,34 @@ import ezbake.thrift.ThriftUtils;
  * SecurityFilter for the Rexster Server. This filter gets the EzSecurityToken via the authenticate method, verifies it
  * with the EzSecurity service, provides the token to Rexster using a ThreadLocal and Rexster passes it along to the
  * Blueprints security wrapper where it can be used.
+ * <p/>
+ * Validated tokens are cached by their serialized form until they expire, so repeated requests with the same
+ * authorization header (including the repeated authentication of a RexPro session request) are only deserialized and
+ * validated once. Cached tokens are shared between requests and must be treated as read-only.
  */
 public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
     private static final Logger logger = LoggerFactory.getLogger(SecurityTokenSecurityFilter.class);
 
+    /**
+     * EzBake property for the maximum number of validated tokens to cache.
+     */
+    public static final String TOKEN_CACHE_SIZE_KEY = "ezgraph.rexster.token.cache.size";
+
+    /**
+     * EzBake property for the maximum number of seconds a validated token is cached, regardless of its expiration.
+     */
+    public static final String TOKEN_CACHE_TTL_KEY = "ezgraph.rexster.token.cache.ttl.seconds";
+
+    /**
+     * Default maximum number of validated tokens to cache.
+     */
+    private static final int DEFAULT_TOKEN_CACHE_SIZE = 1000;
+
+    /**
+     * Default maximum number of seconds a validated token is cached.
+     */
+    private static final int DEFAULT_TOKEN_CACHE_TTL_SECONDS = 60;
+
     /**
      * ThreadLocal responsible for holding the EzBakeSecurityToken associated with the incoming request.
      */
@@ -57,6 +84,12 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
      */
     private EzbakeSecurityClient securityClient;
 
+    /**
+     * Validated tokens keyed by their Base64 encoded form.
+     */
+    private Cache<String, EzSecurityToken> validatedTokens =
+            buildTokenCache(DEFAULT_TOKEN_CACHE_SIZE, DEFAULT_TOKEN_CACHE_TTL_SECONDS);
+
     /**
      * Gets the security token associated with this session.
      *
@@ -68,7 +101,8 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
 
     /**
      * Takes the first value in the 'Authorization' header and de-serializes it into an EzSecurity token. The
-     * securityToken ThreadLocal's value is set with the result of this operation.
+     * securityToken ThreadLocal's value is set with the result of this operation. Tokens that have already been
+     * validated and have not expired are taken from the cache instead.
      *
      * @param token The Base64 encoded String representation of an EzSecurityToken.
      * @param password Not used.
@@ -76,6 +110,25 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
      */
     @Override
     public boolean authenticate(String token, String password) {
+        EzSecurityToken ezToken = getCachedToken(token);
+        if (ezToken == null) {
+            ezToken = validateToken(token);
+            if (isCacheable(ezToken)) {
+                validatedTokens.put(token, ezToken);
+            }
+        }
+
+        securityToken.set(ezToken);
+        return true;
+    }
+
+    /**
+     * De-serializes an EzSecurityToken and validates it with the EzSecurity service.
+     *
+     * @param token The Base64 encoded String representation of an EzSecurityToken.
+     * @return the validated token
+     */
+    private EzSecurityToken validateToken(String token) {
         EzSecurityToken ezToken;
         try {
             ezToken = ThriftUtils.deserializeFromBase64(EzSecurityToken.class, token);
@@ -98,8 +151,50 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
         }
         logger.debug(
                 "token successfully validated: {}", ezToken);
-        securityToken.set(ezToken);
-        return true;
+        return ezToken;
+    }
+
+    /**
+     * Gets a previously validated token from the cache, evicting it if it has since expired.
+     *
+     * @param token The Base64 encoded String representation of an EzSecurityToken.
+     * @return the cached token or null if the token is not cached or has expired
+     */
+    private EzSecurityToken getCachedToken(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        final EzSecurityToken ezToken = validatedTokens.getIfPresent(token);
+        if (ezToken != null && !isCacheable(ezToken)) {
+            validatedTokens.invalidate(token);
+            return null;
+        }
+
+        return ezToken;
+    }
+
+    /**
+     * Checks whether a validated token may be served from the cache. Only tokens with an expiration that has not yet
+     * passed are cacheable.
+     *
+     * @param ezToken validated token
+     * @return true if the token has an expiration in the future
+     */
+    private static boolean isCacheable(EzSecurityToken ezToken) {
+        return ezToken.isSetValidity() && ezToken.getValidity().getNotAfter() > System.currentTimeMillis();
+    }
+
+    /**
+     * Builds a cache for validated tokens.
+     *
+     * @param maximumSize maximum number of tokens to cache
+     * @param ttlSeconds maximum number of seconds to cache each token
+     * @return new token cache
+     */
+    private static Cache<String, EzSecurityToken> buildTokenCache(long maximumSize, long ttlSeconds) {
+        return CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
     }
 
     @Override
@@ -132,6 +227,11 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
         }
 
         securityClient = new EzbakeSecurityClient(properties);
+        validatedTokens = buildTokenCache(
+                Long.parseLong(properties.getProperty(TOKEN_CACHE_SIZE_KEY, String.valueOf(DEFAULT_TOKEN_CACHE_SIZE))),
+                Long.parseLong(
+                        properties.getProperty(
+                                TOKEN_CACHE_TTL_KEY, String.valueOf(DEFAULT_TOKEN_CACHE_TTL_SECONDS))));
     }
 
     @Override
@@ -178,6 +278,8 @@ public class SecurityTokenSecurityFilter extends AbstractSecurityFilter {
             }
 
             if (token != null) {
+                // The security filter authenticates the session request again in super.handleRead(), which is served
+                // from the token cache.
                 authenticate(token, "password-not-used");
             }
         }
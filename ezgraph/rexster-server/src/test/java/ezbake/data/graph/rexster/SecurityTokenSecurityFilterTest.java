@@ -15,6 +15,7 @@
 package ezbake.data.graph.rexster;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.Properties;
 import java.util.concurrent.CyclicBarrier;
@@ -60,6 +61,26 @@ public class SecurityTokenSecurityFilterTest {
         assertEquals(USER_WITH_TS_S_B, SecurityTokenSecurityFilter.getEzBakeSecurityToken());
     }
 
+    /**
+     * Tests that authenticating with the same header twice reuses the validated token instead of de-serializing it
+     * again.
+     *
+     * @throws org.apache.thrift.TException If an exception occurs serializing the token.
+     */
+    @Test
+    public void testAuthenticateCachesToken() throws TException {
+        final String tokenHeader = ThriftUtils.serializeToBase64(USER_WITH_TS_S_B);
+        final SecurityTokenSecurityFilter filter = new SecurityTokenSecurityFilter();
+        filter.configure(properties);
+
+        filter.authenticate(tokenHeader, null);
+        final EzSecurityToken first = SecurityTokenSecurityFilter.getEzBakeSecurityToken();
+        filter.authenticate(tokenHeader, null);
+
+        assertEquals(USER_WITH_TS_S_B, first);
+        assertSame(first, SecurityTokenSecurityFilter.getEzBakeSecurityToken());
+    }
+
     /**
      * Tests the implementation of SecurityTokenSecurityFilter's ThreadLocal holder for an EzSecurityToken using a
      * CyclicBarrier. Each thread/'request' calls authenticate to set the thread local and no thread checks its value
@@ -20,13 +20,12 @@ import ezbake.security.common.core.EzSecurityClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Provider;
-
 /**
  * A token provider that provides app tokens from a security client. Calls
- * {@link ezbake.security.common.core.EzSecurityClient#fetchAppToken()} to obtain the app token.
+ * {@link ezbake.security.common.core.EzSecurityClient#fetchAppToken()} to obtain the app token. The token is cached
+ * until shortly before it expires.
  */
-class ApplicationTokenProvider implements Provider<EzSecurityToken> {
+class ApplicationTokenProvider extends CachingTokenProvider {
     private static final Logger logger = LoggerFactory.getLogger(ApplicationTokenProvider.class);
     private EzSecurityClient securityClient;
 
@@ -40,7 +39,7 @@ class ApplicationTokenProvider implements Provider<EzSecurityToken> {
     }
 
     @Override
-    public EzSecurityToken get() {
+    protected EzSecurityToken fetchToken() {
         EzSecurityToken token = null;
         try {
             token = securityClient.fetchAppToken();
@@ -0,0 +1,153 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.jdbc;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.thrift.ThriftUtils;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Provider;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A token provider that caches the token fetched from the security service until shortly before it expires, along with
+ * its base64 serialization.
+ * <p />
+ * A token within {@link #REFRESH_AHEAD_MILLIS} of expiring is still returned, but a refresh is started in the
+ * background. Only one background refresh is started per fetched token, so a token issued with a shorter lifetime
+ * than that doesn't cause a fetch on every call. A token within {@link #EXPIRY_SKEW_MILLIS} of expiring is not
+ * returned; callers wait for a new token instead. Concurrent callers share one fetch in both cases.
+ */
+abstract class CachingTokenProvider implements Provider<EzSecurityToken> {
+
+    /** How long before expiry a cached token is refreshed in the background */
+    public static final long REFRESH_AHEAD_MILLIS = 60 * 1000;
+
+    /** How long before expiry a cached token is no longer handed out */
+    public static final long EXPIRY_SKEW_MILLIS = 10 * 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingTokenProvider.class);
+
+    private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ezbake-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Object fetchLock = new Object();
+    private volatile CachedToken cached;
+
+    /**
+     * Fetch a new token from the security service.
+     *
+     * @return the token, or null if it could not be fetched
+     */
+    protected abstract EzSecurityToken fetchToken();
+
+    @Override
+    public EzSecurityToken get() {
+        CachedToken current = cached;
+        long now = System.currentTimeMillis();
+        if (current != null && now < current.expiresAt - EXPIRY_SKEW_MILLIS) {
+            if (now >= current.expiresAt - REFRESH_AHEAD_MILLIS && current.refreshStarted.compareAndSet(false, true)) {
+                refreshAsync(current);
+            }
+            return current.token;
+        }
+
+        synchronized (fetchLock) {
+            // Another caller may have fetched a token while we waited
+            current = cached;
+            if (current != null && System.currentTimeMillis() < current.expiresAt - EXPIRY_SKEW_MILLIS) {
+                return current.token;
+            }
+
+            current = refresh();
+            return current == null ? null : current.token;
+        }
+    }
+
+    /**
+     * Serialize a token to base64, reusing the memoized form if the token is the one currently cached.
+     *
+     * @param token token returned by {@link #get()}
+     * @return base64 encoded token
+     * @throws TException if the token could not be serialized
+     */
+    public String serialize(EzSecurityToken token) throws TException {
+        CachedToken current = cached;
+        if (current != null && current.token == token && current.serialized != null) {
+            return current.serialized;
+        }
+
+        return ThriftUtils.serializeToBase64(token);
+    }
+
+    private CachedToken refresh() {
+        EzSecurityToken token = fetchToken();
+        if (token == null) {
+            return null;
+        }
+
+        String serialized = null;
+        try {
+            serialized = ThriftUtils.serializeToBase64(token);
+        } catch (TException e) {
+            logger.warn("Couldn't serialize fetched token, it will be serialized on use", e);
+        }
+
+        long expiresAt = token.isSetValidity() ? token.getValidity().getNotAfter() : 0;
+        CachedToken fetched = new CachedToken(token, serialized, expiresAt);
+        cached = fetched;
+
+        return fetched;
+    }
+
+    private void refreshAsync(final CachedToken stale) {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (fetchLock) {
+                    // Skip the fetch if a caller already replaced the token while it was about to expire
+                    if (cached == stale) {
+                        refresh();
+                    }
+                }
+            }
+        });
+    }
+
+    private static class CachedToken {
+        private final EzSecurityToken token;
+        private final String serialized;
+        private final long expiresAt;
+        private final AtomicBoolean refreshStarted = new AtomicBoolean();
+
+        CachedToken(EzSecurityToken token, String serialized, long expiresAt) {
+            this.token = token;
+            this.serialized = serialized;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -39,280 +39,323 @@ import java.util.concurrent.Executor;
 class ConnectionDecorator implements Connection {
 
     private Connection connection;
-    private Provider<EzSecurityToken> tokenProvider;
+    private TokenPropertyBinder tokenBinder;
 
     public ConnectionDecorator(Connection connection, Provider<EzSecurityToken> tokenProvider) {
+        this(connection, new TokenPropertyBinder(connection, tokenProvider));
+    }
+
+    public ConnectionDecorator(Connection connection, TokenPropertyBinder tokenBinder) {
         this.connection = connection;
-        this.tokenProvider = tokenProvider;
+        this.tokenBinder = tokenBinder;
+    }
+
+    /**
+     * Returns the wrapped connection. Subclasses may override this to reject use of the decorator.
+     *
+     * @return the wrapped connection
+     * @throws SQLException if the connection may not be used
+     */
+    protected Connection delegate() throws SQLException {
+        return connection;
+    }
+
+    /**
+     * Called with every statement created through this connection before it is returned.
+     *
+     * @param statement new statement
+     * @return the statement
+     */
+    protected <T extends StatementDecorator> T track(T statement) {
+        return statement;
+    }
+
+    private Connection clientInfoDelegate() throws SQLClientInfoException {
+        try {
+            return delegate();
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), null, e);
+        }
     }
 
     @Override
     public Statement createStatement() throws SQLException {
-        return new StatementDecorator(connection.createStatement(), tokenProvider);
+        return track(new StatementDecorator(delegate().createStatement(), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s), tokenBinder));
     }
 
     @Override
     public CallableStatement prepareCall(String s) throws SQLException {
-        return new CallableStatementDecorator(connection.prepareCall(s), tokenProvider);
+        return track(new CallableStatementDecorator(delegate().prepareCall(s), tokenBinder));
     }
 
     @Override
     public String nativeSQL(String s) throws SQLException {
-        return connection.nativeSQL(s);
+        return delegate().nativeSQL(s);
     }
 
     @Override
     public void setAutoCommit(boolean b) throws SQLException {
-        connection.setAutoCommit(b);
+        // Turning auto-commit on commits the open transaction, which is a rollback if the transaction was aborted
+        if (b) {
+            tokenBinder.reset();
+        }
+        delegate().setAutoCommit(b);
     }
 
     @Override
     public boolean getAutoCommit() throws SQLException {
-        return connection.getAutoCommit();
+        return delegate().getAutoCommit();
     }
 
     @Override
     public void commit() throws SQLException {
-        connection.commit();
+        // Committing an aborted transaction rolls it back, which reverts a token property set inside it
+        tokenBinder.reset();
+        delegate().commit();
     }
 
     @Override
     public void rollback() throws SQLException {
-        connection.rollback();
+        // The token property may have been set inside the rolled back transaction
+        tokenBinder.reset();
+        delegate().rollback();
     }
 
     @Override
     public void close() throws SQLException {
-        connection.close();
+        delegate().close();
     }
 
     @Override
     public boolean isClosed() throws SQLException {
-        return connection.isClosed();
+        return delegate().isClosed();
     }
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
-        return connection.getMetaData();
+        return delegate().getMetaData();
     }
 
     @Override
     public void setReadOnly(boolean b) throws SQLException {
-        connection.setReadOnly(b);
+        delegate().setReadOnly(b);
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return connection.isReadOnly();
+        return delegate().isReadOnly();
     }
 
     @Override
     public void setCatalog(String s) throws SQLException {
-        connection.setCatalog(s);
+        delegate().setCatalog(s);
     }
 
     @Override
     public String getCatalog() throws SQLException {
-        return connection.getCatalog();
+        return delegate().getCatalog();
     }
 
     @Override
     public void setTransactionIsolation(int i) throws SQLException {
-        connection.setTransactionIsolation(i);
+        delegate().setTransactionIsolation(i);
     }
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return connection.getTransactionIsolation();
+        return delegate().getTransactionIsolation();
     }
 
     @Override
     public SQLWarning getWarnings() throws SQLException {
-        return connection.getWarnings();
+        return delegate().getWarnings();
     }
 
     @Override
     public void clearWarnings() throws SQLException {
-        connection.clearWarnings();
+        delegate().clearWarnings();
     }
 
     @Override
     public Statement createStatement(int i, int i2) throws SQLException {
-        return new StatementDecorator(connection.createStatement(i, i2), tokenProvider);
+        return track(new StatementDecorator(delegate().createStatement(i, i2), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s, int i, int i2) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s, i, i2), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s, i, i2), tokenBinder));
     }
 
     @Override
     public CallableStatement prepareCall(String s, int i, int i2) throws SQLException {
-        return new CallableStatementDecorator(connection.prepareCall(s, i, i2), tokenProvider);
+        return track(new CallableStatementDecorator(delegate().prepareCall(s, i, i2), tokenBinder));
     }
 
     @Override
     public Map<String, Class<?>> getTypeMap() throws SQLException {
-        return connection.getTypeMap();
+        return delegate().getTypeMap();
     }
 
     @Override
     public void setTypeMap(Map<String, Class<?>> typeMap) throws SQLException {
-        connection.setTypeMap(typeMap);
+        delegate().setTypeMap(typeMap);
     }
 
     @Override
     public void setHoldability(int i) throws SQLException {
-        connection.setHoldability(i);
+        delegate().setHoldability(i);
     }
 
     @Override
     public int getHoldability() throws SQLException {
-        return connection.getHoldability();
+        return delegate().getHoldability();
     }
 
     @Override
     public Savepoint setSavepoint() throws SQLException {
-        return connection.setSavepoint();
+        return delegate().setSavepoint();
     }
 
     @Override
     public Savepoint setSavepoint(String s) throws SQLException {
-        return connection.setSavepoint(s);
+        return delegate().setSavepoint(s);
     }
 
     @Override
     public void rollback(Savepoint savepoint) throws SQLException {
-        connection.rollback(savepoint);
+        tokenBinder.reset();
+        delegate().rollback(savepoint);
     }
 
     @Override
     public void releaseSavepoint(Savepoint savepoint) throws SQLException {
-        connection.releaseSavepoint(savepoint);
+        delegate().releaseSavepoint(savepoint);
     }
 
     @Override
     public Statement createStatement(int i, int i2, int i3) throws SQLException {
-        return new StatementDecorator(connection.createStatement(i, i2, i3), tokenProvider);
+        return track(new StatementDecorator(delegate().createStatement(i, i2, i3), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s, int i, int i2, int i3) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s, i, i2, i3), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s, i, i2, i3), tokenBinder));
     }
 
     @Override
     public CallableStatement prepareCall(String s, int i, int i2, int i3) throws SQLException {
-        return new CallableStatementDecorator(connection.prepareCall(s, i, i2, i3), tokenProvider);
+        return track(new CallableStatementDecorator(delegate().prepareCall(s, i, i2, i3), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s, int i) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s, i), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s, i), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s, int[] ints) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s, ints), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s, ints), tokenBinder));
     }
 
     @Override
     public PreparedStatement prepareStatement(String s, String[] strings) throws SQLException {
-        return new PreparedStatementDecorator(connection.prepareStatement(s, strings), tokenProvider);
+        return track(new PreparedStatementDecorator(delegate().prepareStatement(s, strings), tokenBinder));
     }
 
     @Override
     public Clob createClob() throws SQLException {
-        return connection.createClob();
+        return delegate().createClob();
     }
 
     @Override
     public Blob createBlob() throws SQLException {
-        return connection.createBlob();
+        return delegate().createBlob();
     }
 
     @Override
     public NClob createNClob() throws SQLException {
-        return connection.createNClob();
+        return delegate().createNClob();
     }
 
     @Override
     public SQLXML createSQLXML() throws SQLException {
-        return connection.createSQLXML();
+        return delegate().createSQLXML();
     }
 
     @Override
     public boolean isValid(int i) throws SQLException {
-        return connection.isValid(i);
+        return delegate().isValid(i);
     }
 
     @Override
     public void setClientInfo(String s, String s2) throws SQLClientInfoException {
-        connection.setClientInfo(s, s2);
+        clientInfoDelegate().setClientInfo(s, s2);
     }
 
     @Override
     public void setClientInfo(Properties properties) throws SQLClientInfoException {
-        connection.setClientInfo(properties);
+        clientInfoDelegate().setClientInfo(properties);
     }
 
     @Override
     public String getClientInfo(String s) throws SQLException {
-        return connection.getClientInfo(s);
+        return delegate().getClientInfo(s);
     }
 
     @Override
     public Properties getClientInfo() throws SQLException {
-        return connection.getClientInfo();
+        return delegate().getClientInfo();
     }
 
     @Override
     public Array createArrayOf(String s, Object[] objects) throws SQLException {
-        return connection.createArrayOf(s, objects);
+        return delegate().createArrayOf(s, objects);
     }
 
     @Override
     public Struct createStruct(String s, Object[] objects) throws SQLException {
-        return connection.createStruct(s, objects);
+        return delegate().createStruct(s, objects);
     }
 
     @Override
     public void setSchema(String s) throws SQLException {
-        connection.setSchema(s);
+        delegate().setSchema(s);
     }
 
     @Override
     public String getSchema() throws SQLException {
-        return connection.getSchema();
+        return delegate().getSchema();
     }
 
     @Override
     public void abort(Executor executor) throws SQLException {
-        connection.abort(executor);
+        delegate().abort(executor);
     }
 
     @Override
     public void setNetworkTimeout(Executor executor, int i) throws SQLException {
-        connection.setNetworkTimeout(executor, i);
+        delegate().setNetworkTimeout(executor, i);
     }
 
     @Override
     public int getNetworkTimeout() throws SQLException {
-        return connection.getNetworkTimeout();
+        return delegate().getNetworkTimeout();
     }
 
     @Override
     public <T> T unwrap(Class<T> tClass) throws SQLException {
-        return connection.unwrap(tClass);
+        return delegate().unwrap(tClass);
     }
 
     @Override
     public boolean isWrapperFor(Class<?> aClass) throws SQLException {
-        return connection.isWrapperFor(aClass);
+        return delegate().isWrapperFor(aClass);
     }
 }
@@ -19,14 +19,12 @@ import ezbake.security.common.core.EzSecurityClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.inject.Provider;
-
 /**
  * A token provider that provides app tokens from a security client based on an original token. Calls
  * {@link ezbake.security.common.core.EzSecurityClient#fetchDerivedTokenForApp()} to
- * obtain the app token.
+ * obtain the app token. The derived token is cached until shortly before it expires.
  */
-class DerivedApplicationTokenProvider implements Provider<EzSecurityToken>
+class DerivedApplicationTokenProvider extends CachingTokenProvider
 {
 
     private static final Logger logger = LoggerFactory.getLogger(DerivedApplicationTokenProvider.class);
@@ -47,7 +45,7 @@ class DerivedApplicationTokenProvider implements Provider<EzSecurityToken>
     }
 
     @Override
-    public EzSecurityToken get()
+    protected EzSecurityToken fetchToken()
     {
         EzSecurityToken token = null;
         try
@@ -14,78 +14,96 @@
 
 package ezbake.data.jdbc;
 
-import ezbake.base.thrift.EzSecurityToken;
-import ezbake.thrift.ThriftUtils;
-import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.inject.Provider;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * A statement that sets an EzBake security token as a database property before executing any statements. Wraps a real
  * JDBC statement.
  */
 class StatementDecorator implements Statement {
+    private static final Logger logger = LoggerFactory.getLogger(StatementDecorator.class);
 
-    /** Database property to set token to */
-    public static final String SECURITY_TOKEN_PROPERTY_NAME = "ezbake.token";
+    /** SQL that ends a transaction, which can revert a token property set inside it */
+    private static final Pattern TRANSACTION_END_PATTERN =
+            Pattern.compile("(^|;)\\s*(ROLLBACK|ABORT|COMMIT|END)\\b", Pattern.CASE_INSENSITIVE);
 
     private Statement statement;
-    private Provider<EzSecurityToken> tokenProvider;
+    private TokenPropertyBinder tokenBinder;
+    private int batchSize;
+    private boolean batchEndsTransaction;
 
     /**
      * Wrap an existing JDBC statement.
      *
      * @param statement statement to wrap
-     * @param tokenProvider token provider
+     * @param tokenBinder binder for the security token of the statement's connection
      */
-    public StatementDecorator(Statement statement, Provider<EzSecurityToken> tokenProvider) {
+    public StatementDecorator(Statement statement, TokenPropertyBinder tokenBinder) {
         this.statement = statement;
-        this.tokenProvider = tokenProvider;
+        this.tokenBinder = tokenBinder;
     }
 
     /**
-     * Set security token to database property. The property is set to the base64 encoded EzSecurityToken object
-     * provided by the token provider.
+     * Set security token to database property, unless the connection already has the current token bound.
      *
      * @throws SQLException if the property-setting statement could not be executed
      */
     protected void executeSetTokenProperty() throws SQLException {
-        EzSecurityToken token = tokenProvider.get();
-        if (token == null) {
-            throw new SQLException("Could not get security token from token provider");
-        }
+        tokenBinder.bind();
+    }
 
-        String serializedToken;
-        try {
-            serializedToken = ThriftUtils.serializeToBase64(token);
-        } catch (TException e) {
-            throw new SQLException(e);
+    /**
+     * Forget the connection's bound token if the given SQL ends a transaction. Committing an aborted transaction rolls
+     * it back as well, so any transaction end may have reverted the token property.
+     *
+     * @param sql SQL that was executed
+     */
+    private void checkTransactionEnd(String sql) {
+        if (endsTransaction(sql)) {
+            tokenBinder.reset();
         }
+    }
 
-        // In case the wrapped statement is a PreparedStatement or a CallableStatement, in which case it can't take a
-        // query string on its own. The connection we're getting is from the wrapped (true) implementation.
-        Statement propertyStatement = getConnection().createStatement();
-        propertyStatement.execute(String.format("set %s = '%s';", SECURITY_TOKEN_PROPERTY_NAME, serializedToken));
-        propertyStatement.close();
+    private static boolean endsTransaction(String sql) {
+        return sql != null && TRANSACTION_END_PATTERN.matcher(sql).find();
+    }
+
+    /**
+     * Count a statement or parameter set added to the current batch.
+     */
+    protected void batchAdded() {
+        batchSize++;
     }
 
     @Override
     public ResultSet executeQuery(String s) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeQuery(s);
+        try {
+            return statement.executeQuery(s);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public int executeUpdate(String s) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeUpdate(s);
+        try {
+            return statement.executeUpdate(s);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
@@ -152,7 +170,11 @@ class StatementDecorator implements Statement {
     public boolean execute(String s) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.execute(s);
+        try {
+            return statement.execute(s);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
@@ -203,18 +225,40 @@ class StatementDecorator implements Statement {
     @Override
     public void addBatch(String s) throws SQLException {
         statement.addBatch(s);
+        batchAdded();
+        batchEndsTransaction |= endsTransaction(s);
     }
 
     @Override
     public void clearBatch() throws SQLException {
         statement.clearBatch();
+        batchSize = 0;
+        batchEndsTransaction = false;
     }
 
     @Override
     public int[] executeBatch() throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeBatch();
+        int size = batchSize;
+        boolean endsTransaction = batchEndsTransaction;
+        batchSize = 0;
+        batchEndsTransaction = false;
+        long start = System.nanoTime();
+        int[] counts;
+        try {
+            counts = statement.executeBatch();
+        } finally {
+            if (endsTransaction) {
+                tokenBinder.reset();
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Executed batch of {} statements in {} ms", size,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        return counts;
     }
 
     @Override
@@ -236,42 +280,66 @@ class StatementDecorator implements Statement {
     public int executeUpdate(String s, int i) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeUpdate(s, i);
+        try {
+            return statement.executeUpdate(s, i);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public int executeUpdate(String s, int[] ints) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeUpdate(s, ints);
+        try {
+            return statement.executeUpdate(s, ints);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public int executeUpdate(String s, String[] strings) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.executeUpdate(s, strings);
+        try {
+            return statement.executeUpdate(s, strings);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public boolean execute(String s, int i) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.execute(s, i);
+        try {
+            return statement.execute(s, i);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public boolean execute(String s, int[] ints) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.execute(s, ints);
+        try {
+            return statement.execute(s, ints);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
     public boolean execute(String s, String[] strings) throws SQLException {
         executeSetTokenProperty();
 
-        return statement.execute(s, strings);
+        try {
+            return statement.execute(s, strings);
+        } finally {
+            checkTransactionEnd(s);
+        }
     }
 
     @Override
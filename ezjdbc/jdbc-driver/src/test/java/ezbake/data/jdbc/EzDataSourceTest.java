@@ -0,0 +1,152 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.jdbc;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.thrift.ThriftTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Provider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a connection returned to the pool keeps nothing from the handle that used it.
+ */
+public class EzDataSourceTest {
+
+    private final List<FakeConnection> physicals = new ArrayList<FakeConnection>();
+    private EzDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        final EzSecurityToken token = ThriftTestUtils.generateTestSecurityToken("id", "id", Arrays.asList("U"));
+        final EzJdbcDriver driver = new EzJdbcDriver() {
+            @Override
+            Connection connectRealDriver(String url, Properties properties) {
+                FakeConnection physical = new FakeConnection();
+                physicals.add(physical);
+                return physical.connection;
+            }
+        };
+        dataSource = new EzDataSource(driver, "jdbc:h2:mem:test", new Properties(),
+                new Provider<EzSecurityToken>() {
+                    @Override
+                    public EzSecurityToken get() {
+                        return token;
+                    }
+                }, 1);
+    }
+
+    @Test
+    public void testTokenClearedOnReturn() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("select 1");
+        connection.close();
+
+        FakeConnection physical = physicals.get(0);
+        assertEquals(2, physical.tokenPropertySets());
+        assertEquals(
+                String.format("set %s = '';", TokenPropertyBinder.SECURITY_TOKEN_PROPERTY_NAME),
+                physical.lastTokenPropertySet());
+        assertFalse(physical.closed);
+    }
+
+    @Test
+    public void testConnectionReused() throws SQLException {
+        dataSource.getConnection().close();
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("select 1");
+
+        assertEquals(1, physicals.size());
+        assertEquals(1, physicals.get(0).tokenPropertySets());
+    }
+
+    @Test
+    public void testStatementsFailAfterReturn() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        connection.close();
+
+        assertTrue(physicals.get(0).statements.get(0).closed);
+        try {
+            statement.execute("select 1");
+            fail("Statement of a returned connection ran");
+        } catch (SQLException e) {
+            // expected
+        }
+        try {
+            connection.createStatement();
+            fail("Returned connection created a statement");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertTrue(physicals.get(0).executed.isEmpty());
+    }
+
+    @Test
+    public void testOpenTransactionRolledBack() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().execute("insert into t values (1)");
+        connection.close();
+
+        FakeConnection physical = physicals.get(0);
+        assertEquals(1, physical.rollbacks);
+        assertEquals(0, physical.commits);
+        assertTrue(physical.autoCommit);
+        assertFalse(physical.closed);
+    }
+
+    @Test
+    public void testFullPoolClosesConnection() throws SQLException {
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        first.close();
+        second.close();
+
+        assertEquals(2, physicals.size());
+        assertFalse(physicals.get(0).closed);
+        assertTrue(physicals.get(1).closed);
+    }
+
+    @Test
+    public void testUnwrapKeepsPhysicalConnection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        Class<? extends Connection> physicalClass = physicals.get(0).connection.getClass();
+
+        assertSame(connection, connection.unwrap(Connection.class));
+        assertFalse(connection.isWrapperFor(physicalClass));
+        try {
+            connection.unwrap(physicalClass);
+            fail("Pooled connection unwrapped to the physical connection");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
@@ -14,9 +14,6 @@
 
  package ezbake.data.postgres;
 
-import ezbake.base.thrift.EzSecurityToken;
-
-import javax.inject.Provider;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
@@ -47,10 +44,10 @@ class CallableStatementDecorator extends PreparedStatementDecorator implements C
      * Wrap an existing callable statement.
      *
      * @param callableStatement statement to wrap
-     * @param tokenProvider token provider
+     * @param tokenBinder binder for the security token of the statement's connection
      */
-    public CallableStatementDecorator(CallableStatement callableStatement, Provider<EzSecurityToken> tokenProvider) {
-        super(callableStatement, tokenProvider);
+    public CallableStatementDecorator(CallableStatement callableStatement, TokenPropertyBinder tokenBinder) {
+        super(callableStatement, tokenBinder);
 
         this.callableStatement = callableStatement;
     }
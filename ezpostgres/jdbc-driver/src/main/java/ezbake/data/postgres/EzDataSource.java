@@ -0,0 +1,302 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.postgres;
+
+import ezbake.base.thrift.EzSecurityToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Provider;
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A DataSource that pools physical connections opened through {@link EzPostgresDriver}.
+ * <p />
+ * The connection URL and properties are resolved once, and a single token provider is shared by all connections, so
+ * per-connection setup is limited to opening the physical connection. Connections are handed out without a token; the
+ * token from the provider is bound before the first statement runs, and cleared again when the connection is closed
+ * and returned to the pool. Open transactions are rolled back on return.
+ * <p />
+ * The property <code>ezbakePoolMaxIdle</code> sets how many idle connections are kept (default 8). Connections closed
+ * while the pool is full are closed for real.
+ */
+public class EzDataSource implements DataSource {
+
+    /** Property name for maximum number of idle connections kept in the pool */
+    public static final String EZBAKE_POOL_MAX_IDLE_PROPERTY = "ezbakePoolMaxIdle";
+
+    /** Default maximum number of idle connections kept in the pool */
+    public static final int DEFAULT_POOL_MAX_IDLE = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(EzDataSource.class);
+
+    private final EzPostgresDriver driver;
+    private final String realUrl;
+    private final Properties properties;
+    private final Provider<EzSecurityToken> tokenProvider;
+    private final BlockingQueue<Connection> idleConnections;
+
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * Create a data source for a JDBC connection URL.
+     *
+     * @param url JDBC connection URL starting with jdbc:ezbake:
+     * @throws SQLException if the URL is not an EzBake URL or the token provider cannot be created
+     */
+    public EzDataSource(String url) throws SQLException {
+        this(url, new Properties());
+    }
+
+    /**
+     * Create a data source for a JDBC connection URL and connection properties.
+     *
+     * @param url JDBC connection URL starting with jdbc:ezbake:
+     * @param properties JDBC connection properties
+     * @throws SQLException if the URL is not an EzBake URL or the token provider cannot be created
+     */
+    public EzDataSource(String url, Properties properties) throws SQLException {
+        if (!url.startsWith(EzPostgresDriver.JDBC_EZBAKE_URL_PREFIX)) {
+            throw new SQLException(String.format("JDBC URL %s doesn't start with jdbc:ezbake:", url));
+        }
+
+        this.driver = new EzPostgresDriver();
+        this.properties = driver.getConnectionProperties(url, properties);
+        this.realUrl = driver.unwrapURL(url);
+        this.tokenProvider = driver.createTokenProvider(this.properties);
+
+        int maxIdle = Integer.parseInt(this.properties.getProperty(
+                EZBAKE_POOL_MAX_IDLE_PROPERTY, String.valueOf(DEFAULT_POOL_MAX_IDLE)));
+        this.idleConnections = new LinkedBlockingQueue<Connection>(maxIdle);
+    }
+
+    /**
+     * Create a data source from already resolved settings.
+     *
+     * @param driver driver that opens the physical connections
+     * @param realUrl JDBC connection URL of the real driver
+     * @param properties JDBC connection properties
+     * @param tokenProvider provider of the token bound to every connection
+     * @param maxIdle maximum number of idle connections kept in the pool
+     */
+    EzDataSource(EzPostgresDriver driver, String realUrl, Properties properties, Provider<EzSecurityToken> tokenProvider,
+            int maxIdle) {
+        this.driver = driver;
+        this.realUrl = realUrl;
+        this.properties = properties;
+        this.tokenProvider = tokenProvider;
+        this.idleConnections = new LinkedBlockingQueue<Connection>(maxIdle);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            if (!connection.isClosed()) {
+                return new PooledConnectionDecorator(connection);
+            }
+        }
+
+        return new PooledConnectionDecorator(driver.connectRealDriver(realUrl, properties));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the credentials given at construction");
+    }
+
+    /**
+     * Close all idle connections in the pool. Connections that are in use are closed when they are returned.
+     */
+    public void close() {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter printWriter) throws SQLException {
+        this.logWriter = printWriter;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return loginTimeout;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> tClass) throws SQLException {
+        if (tClass.isInstance(this)) {
+            return tClass.cast(this);
+        }
+
+        throw new SQLException(String.format("%s is not a wrapper for %s", getClass().getName(), tClass.getName()));
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+        return aClass.isInstance(this);
+    }
+
+    /**
+     * Return a physical connection to the pool, closing the statements opened through the handle and clearing its
+     * token and any open transaction. The connection is closed if it can't be cleaned up or the pool is full.
+     *
+     * @param connection physical connection
+     * @param tokenBinder binder used while the connection was handed out
+     * @param statements statements opened through the handle
+     */
+    private void release(Connection connection, TokenPropertyBinder tokenBinder, Collection<Statement> statements) {
+        try {
+            for (Statement statement : statements) {
+                closeQuietly(statement);
+            }
+
+            if (connection.isClosed()) {
+                return;
+            }
+
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            tokenBinder.unbind();
+
+            if (idleConnections.offer(connection)) {
+                return;
+            }
+        } catch (SQLException e) {
+            logger.warn("Could not reset pooled connection, closing it", e);
+        } finally {
+            tokenBinder.close();
+        }
+
+        closeQuietly(connection);
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close statement of pooled connection", e);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close pooled connection", e);
+        }
+    }
+
+    /**
+     * Connection handed out by the pool. Closing it closes the statements opened through it and returns the physical
+     * connection to the pool. The handle can't be used after that.
+     */
+    private class PooledConnectionDecorator extends ConnectionDecorator {
+        private final Connection connection;
+        private final TokenPropertyBinder tokenBinder;
+        private final Set<Statement> statements =
+                Collections.newSetFromMap(new WeakHashMap<Statement, Boolean>());
+        private volatile boolean closed;
+
+        PooledConnectionDecorator(Connection connection) {
+            this(connection, new TokenPropertyBinder(connection, tokenProvider));
+        }
+
+        private PooledConnectionDecorator(Connection connection, TokenPropertyBinder tokenBinder) {
+            super(connection, tokenBinder);
+
+            this.connection = connection;
+            this.tokenBinder = tokenBinder;
+        }
+
+        @Override
+        protected Connection delegate() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            return connection;
+        }
+
+        @Override
+        protected synchronized <T extends StatementDecorator> T track(T statement) {
+            statements.add(statement);
+            return statement;
+        }
+
+        @Override
+        public synchronized void close() throws SQLException {
+            if (!closed) {
+                closed = true;
+                release(connection, tokenBinder, new ArrayList<Statement>(statements));
+                statements.clear();
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || connection.isClosed();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> tClass) throws SQLException {
+            if (tClass.isInstance(this)) {
+                return tClass.cast(this);
+            }
+
+            // The physical connection outlives this handle, so it must not be handed out
+            throw new SQLException(String.format("Pooled connections can't be unwrapped to %s", tClass.getName()));
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+            return aClass.isInstance(this);
+        }
+    }
+}
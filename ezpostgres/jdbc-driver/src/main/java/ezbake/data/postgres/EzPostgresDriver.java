@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Provider;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URLDecoder;
 import java.sql.Connection;
@@ -34,7 +35,12 @@ import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Wraps a real Driver with one that returns Connections decorated with TokenPropertyConnectionDecorator.
@@ -56,6 +62,8 @@ import java.util.Properties;
  * This driver manages EzBake security clients that can be used across different connections. The properties passed to
  * the client are taken from the Properties passed to connect(). If not Properties are given, then they are read using
  * EzConfiguration.
+ * <p />
+ * Applications that open connections frequently should use {@link EzDataSource}, which pools physical connections.
  */
 public class EzPostgresDriver implements Driver {
 
@@ -78,6 +86,25 @@ public class EzPostgresDriver implements Driver {
 
     private static final Logger logger = LoggerFactory.getLogger(EzPostgresDriver.class);
 
+    private static final ConcurrentMap<String, Constructor<Provider<EzSecurityToken>>> tokenProviderConstructors =
+            new ConcurrentHashMap<String, Constructor<Provider<EzSecurityToken>>>();
+
+    /** Maximum number of distinct connection settings whose token providers are kept for reuse */
+    private static final int MAX_SHARED_TOKEN_PROVIDERS = 100;
+
+    // Token providers by connection properties, which name the provider class and configure the security client.
+    // Connections with the same settings share a provider, and with it the provider's cached token.
+    private static final Map<Properties, Provider<EzSecurityToken>> tokenProviders = Collections.synchronizedMap(
+            new LinkedHashMap<Properties, Provider<EzSecurityToken>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Properties, Provider<EzSecurityToken>> eldest) {
+                    return size() > MAX_SHARED_TOKEN_PROVIDERS;
+                }
+            });
+
+    // Can't use the driver manager with an uberjar
+    private final Driver realDriver = new org.postgresql.Driver();
+
     private EzSecurityClient securityClient;
 
     static {
@@ -94,32 +121,9 @@ public class EzPostgresDriver implements Driver {
             throw new SQLException(String.format("JDBC URL %s doesn't start with jdbc:ezbake:", url));
         }
 
-        Properties queryProperties = getURLQueryParameterProperties(url);
-        Properties cloneProperties = (Properties) properties.clone();
-        cloneProperties.putAll(queryProperties);
-
-        Provider<EzSecurityToken> tokenProvider;
-        try {
-            tokenProvider = getTokenProvider(cloneProperties);
-        } catch (ClassNotFoundException e) {
-            throw new SQLException(e);
-        } catch (NoSuchMethodException e) {
-            throw new SQLException(e);
-        } catch (IllegalAccessException e) {
-            throw new SQLException(e);
-        } catch (InvocationTargetException e) {
-            throw new SQLException(e);
-        } catch (InstantiationException e) {
-            throw new SQLException(e);
-        } catch (TException e) {
-            throw new SQLException(e);
-        } catch (EzConfigurationLoaderException e) {
-            throw new SQLException(e);
-        }
-
-        // Can't use the driver manager with an uberjar
-        Driver realDriver = new org.postgresql.Driver();
-        Connection realConnection = realDriver.connect(unwrapURL(url), cloneProperties);
+        Properties connectionProperties = getConnectionProperties(url, properties);
+        Provider<EzSecurityToken> tokenProvider = createTokenProvider(connectionProperties);
+        Connection realConnection = connectRealDriver(unwrapURL(url), connectionProperties);
 
         return new ConnectionDecorator(realConnection, tokenProvider);
     }
@@ -214,6 +218,32 @@ public class EzPostgresDriver implements Driver {
         return properties;
     }
 
+    /**
+     * Combine the properties passed to the driver with those given as query parameters in the connection URL.
+     *
+     * @param url JDBC connection URL
+     * @param properties JDBC connection properties
+     * @return properties overridden by URL query parameters
+     */
+    Properties getConnectionProperties(String url, Properties properties) {
+        Properties connectionProperties = (Properties) properties.clone();
+        connectionProperties.putAll(getURLQueryParameterProperties(url));
+
+        return connectionProperties;
+    }
+
+    /**
+     * Open a physical connection with the real PostgreSQL driver.
+     *
+     * @param url unwrapped JDBC connection URL
+     * @param properties JDBC connection properties
+     * @return a connection that is not decorated
+     * @throws SQLException if the connection could not be opened
+     */
+    Connection connectRealDriver(String url, Properties properties) throws SQLException {
+        return realDriver.connect(url, properties);
+    }
+
     /**
      * Get the Driver wrapped by this decorating driver.
      *
@@ -237,6 +267,54 @@ public class EzPostgresDriver implements Driver {
         return securityClient;
     }
 
+    /**
+     * Get the token provider requested by the JDBC connection properties. Providers are shared by all connections
+     * opened with equal properties.
+     *
+     * @param properties JDBC connection properties
+     * @return a token provider
+     * @throws SQLException if the token provider cannot be created
+     */
+    Provider<EzSecurityToken> createTokenProvider(Properties properties) throws SQLException {
+        Properties key = (Properties) properties.clone();
+        Provider<EzSecurityToken> tokenProvider = tokenProviders.get(key);
+        if (tokenProvider != null) {
+            return tokenProvider;
+        }
+
+        tokenProvider = newTokenProvider(properties);
+        synchronized (tokenProviders) {
+            // Keep the provider of a connection that was opened with the same settings meanwhile
+            Provider<EzSecurityToken> existing = tokenProviders.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            tokenProviders.put(key, tokenProvider);
+        }
+
+        return tokenProvider;
+    }
+
+    private Provider<EzSecurityToken> newTokenProvider(Properties properties) throws SQLException {
+        try {
+            return getTokenProvider(properties);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException(e);
+        } catch (NoSuchMethodException e) {
+            throw new SQLException(e);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        } catch (InvocationTargetException e) {
+            throw new SQLException(e);
+        } catch (InstantiationException e) {
+            throw new SQLException(e);
+        } catch (TException e) {
+            throw new SQLException(e);
+        } catch (EzConfigurationLoaderException e) {
+            throw new SQLException(e);
+        }
+    }
+
     /**
      * Returns the requested token provider based on JDBC connection properties. The properties are a combination of
      * properties passed to the DriverManager and are possibly overridden by query parameters in the JDBC connection
@@ -252,7 +330,6 @@ public class EzPostgresDriver implements Driver {
      * @throws InstantiationException if the token provider cannot be loaded
      * @throws TException if the explicit token cannot be deserialized
      */
-    @SuppressWarnings("unchecked")
     private Provider<EzSecurityToken> getTokenProvider(Properties properties) throws ClassNotFoundException,
             EzConfigurationLoaderException, NoSuchMethodException, IllegalAccessException, InvocationTargetException,
             InstantiationException, TException {
@@ -268,11 +345,32 @@ public class EzPostgresDriver implements Driver {
             tokenProvider = new ExplicitTokenProvider(getSecurityClient(properties),
                     ThriftUtils.deserializeFromBase64(EzSecurityToken.class, tokenValue));
         } else {
-            tokenProvider = (Provider<EzSecurityToken>) Class.forName(tokenProviderProperty)
-                    .getConstructor(EzSecurityClient.class)
+            tokenProvider = getTokenProviderConstructor(tokenProviderProperty)
                     .newInstance(getSecurityClient(properties));
         }
 
         return tokenProvider;
     }
+
+    /**
+     * Returns the constructor of a token provider class that takes a security client. Constructors are cached so that
+     * the class is only resolved once.
+     *
+     * @param className fully qualified name of the token provider class
+     * @return the token provider's constructor
+     * @throws ClassNotFoundException if the token provider class is not found
+     * @throws NoSuchMethodException if the token provider has no constructor taking a security client
+     */
+    @SuppressWarnings("unchecked")
+    private static Constructor<Provider<EzSecurityToken>> getTokenProviderConstructor(String className) throws
+            ClassNotFoundException, NoSuchMethodException {
+        Constructor<Provider<EzSecurityToken>> constructor = tokenProviderConstructors.get(className);
+        if (constructor == null) {
+            constructor = (Constructor<Provider<EzSecurityToken>>) Class.forName(className)
+                    .getConstructor(EzSecurityClient.class);
+            tokenProviderConstructors.putIfAbsent(className, constructor);
+        }
+
+        return constructor;
+    }
 }
@@ -14,9 +14,6 @@
 
  package ezbake.data.postgres;
 
-import ezbake.base.thrift.EzSecurityToken;
-
-import javax.inject.Provider;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
@@ -46,10 +43,10 @@ class PreparedStatementDecorator extends StatementDecorator implements PreparedS
      * Wrap an existing prepared statement.
      *
      * @param preparedStatement statement to wrap
-     * @param provider token provider
+     * @param tokenBinder binder for the security token of the statement's connection
      */
-    public PreparedStatementDecorator(PreparedStatement preparedStatement, Provider<EzSecurityToken> provider) {
-        super(preparedStatement, provider);
+    public PreparedStatementDecorator(PreparedStatement preparedStatement, TokenPropertyBinder tokenBinder) {
+        super(preparedStatement, tokenBinder);
 
         this.preparedStatement = preparedStatement;
     }
@@ -178,6 +175,7 @@ class PreparedStatementDecorator extends StatementDecorator implements PreparedS
     @Override
     public void addBatch() throws SQLException {
         preparedStatement.addBatch();
+        batchAdded();
     }
 
     @Override
@@ -0,0 +1,132 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.postgres;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.thrift.ThriftUtils;
+import org.apache.thrift.TException;
+
+import javax.inject.Provider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Sets the EzBake security token as a database property on a connection. The property is session scoped, so the SET
+ * statement is only issued when the provided token differs from the one last bound to the connection. Ending a
+ * transaction can revert the property (a commit of an aborted transaction is a rollback), so callers must
+ * {@link #reset()} the binder whenever a transaction ends.
+ */
+class TokenPropertyBinder {
+
+    /** Database property to set token to */
+    public static final String SECURITY_TOKEN_PROPERTY_NAME = "ezbake.token";
+
+    private Connection connection;
+    private Provider<EzSecurityToken> tokenProvider;
+    private EzSecurityToken boundToken;
+    private boolean propertySet;
+    private boolean closed;
+
+    /**
+     * Create a binder for a connection.
+     *
+     * @param connection the real (wrapped) connection
+     * @param tokenProvider token provider
+     */
+    public TokenPropertyBinder(Connection connection, Provider<EzSecurityToken> tokenProvider) {
+        this.connection = connection;
+        this.tokenProvider = tokenProvider;
+    }
+
+    /**
+     * Make sure the connection's token property holds the token from the token provider. The property is set to the
+     * base64 encoded EzSecurityToken object.
+     *
+     * @throws SQLException if the binder is closed, the token could not be fetched or the property-setting statement
+     * could not be executed
+     */
+    public synchronized void bind() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed");
+        }
+
+        EzSecurityToken token = tokenProvider.get();
+        if (token == null) {
+            throw new SQLException("Could not get security token from token provider");
+        }
+
+        if (token.equals(boundToken)) {
+            return;
+        }
+
+        String serializedToken;
+        try {
+            if (tokenProvider instanceof CachingTokenProvider) {
+                serializedToken = ((CachingTokenProvider) tokenProvider).serialize(token);
+            } else {
+                serializedToken = ThriftUtils.serializeToBase64(token);
+            }
+        } catch (TException e) {
+            throw new SQLException(e);
+        }
+
+        setTokenProperty(serializedToken);
+        propertySet = true;
+
+        // Providers may refresh a token in place, so keep our own copy to compare against
+        boundToken = token.deepCopy();
+    }
+
+    /**
+     * Clear the token property on the connection if it was ever set through this binder, so that a later user of the
+     * connection can't run statements with this token.
+     *
+     * @throws SQLException if the property-clearing statement could not be executed
+     */
+    public synchronized void unbind() throws SQLException {
+        boundToken = null;
+        if (propertySet) {
+            setTokenProperty("");
+            propertySet = false;
+        }
+    }
+
+    private void setTokenProperty(String value) throws SQLException {
+        Statement propertyStatement = connection.createStatement();
+        try {
+            propertyStatement.execute(String.format("set %s = '%s';", SECURITY_TOKEN_PROPERTY_NAME, value));
+        } finally {
+            propertyStatement.close();
+        }
+    }
+
+    /**
+     * Stop binding tokens. Statements still holding this binder fail instead of setting a token on a connection that
+     * may have been handed to someone else.
+     */
+    public synchronized void close() {
+        closed = true;
+        boundToken = null;
+    }
+
+    /**
+     * Forget the bound token so that the property is set again before the next statement.
+     */
+    public synchronized void reset() {
+        boundToken = null;
+    }
+}
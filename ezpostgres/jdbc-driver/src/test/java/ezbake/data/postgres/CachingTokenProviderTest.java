@@ -0,0 +1,198 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.postgres;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.base.thrift.ValidityCaveats;
+import ezbake.thrift.ThriftTestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when {@link CachingTokenProvider} fetches a new token.
+ */
+public class CachingTokenProviderTest {
+
+    private static final long WAIT_SECONDS = 5;
+
+    /** Lifetime of a token that is cached without a refresh */
+    private static final long LONG_LIFETIME = 10 * 60 * 1000;
+
+    /** Lifetime of a token that is handed out while a refresh runs in the background */
+    private static final long REFRESH_AHEAD_LIFETIME =
+            (CachingTokenProvider.REFRESH_AHEAD_MILLIS + CachingTokenProvider.EXPIRY_SKEW_MILLIS) / 2;
+
+    /** Lifetime of a token that is too close to expiring to hand out again */
+    private static final long EXPIRING_LIFETIME = CachingTokenProvider.EXPIRY_SKEW_MILLIS / 2;
+
+    @Test
+    public void testTokenCached() {
+        QueuedTokenProvider provider = new QueuedTokenProvider(token("first", LONG_LIFETIME));
+
+        EzSecurityToken first = provider.get();
+        assertSame(first, provider.get());
+        assertEquals(1, provider.fetches.get());
+    }
+
+    @Test
+    public void testRefreshAheadReturnsCachedToken() throws InterruptedException {
+        EzSecurityToken first = token("first", REFRESH_AHEAD_LIFETIME);
+        EzSecurityToken second = token("second", LONG_LIFETIME);
+        QueuedTokenProvider provider = new QueuedTokenProvider(first, second);
+
+        assertSame(first, provider.get());
+        // Still handed out, with the new token fetched in the background
+        assertSame(first, provider.get());
+
+        awaitToken(provider, second);
+        assertEquals(2, provider.fetches.get());
+    }
+
+    @Test
+    public void testRefreshStartedOncePerFetchedToken() throws InterruptedException {
+        EzSecurityToken first = token("first", REFRESH_AHEAD_LIFETIME);
+        EzSecurityToken second = token("second", REFRESH_AHEAD_LIFETIME);
+        QueuedTokenProvider provider = new QueuedTokenProvider(first, second);
+
+        for (int i = 0; i < 100; i++) {
+            provider.get();
+        }
+        awaitToken(provider, second);
+
+        // The second token is also short-lived, so it gets one refresh of its own. That one fails and isn't retried.
+        for (int i = 0; i < 100; i++) {
+            assertSame(second, provider.get());
+        }
+        assertTrue(provider.fetched.tryAcquire(3, WAIT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertSame(second, provider.get());
+        }
+        Thread.sleep(100);
+        assertEquals(3, provider.fetches.get());
+    }
+
+    @Test
+    public void testExpiringTokenNotReturned() {
+        EzSecurityToken first = token("first", EXPIRING_LIFETIME);
+        EzSecurityToken second = token("second", LONG_LIFETIME);
+        QueuedTokenProvider provider = new QueuedTokenProvider(first, second);
+
+        assertSame(first, provider.get());
+        assertSame(second, provider.get());
+        assertEquals(2, provider.fetches.get());
+    }
+
+    @Test
+    public void testConcurrentCallersShareFetch() throws InterruptedException {
+        final EzSecurityToken first = token("first", LONG_LIFETIME);
+        final QueuedTokenProvider provider = new QueuedTokenProvider(first);
+        provider.blockFetches();
+
+        final List<EzSecurityToken> results = new ArrayList<EzSecurityToken>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    EzSecurityToken token = provider.get();
+                    synchronized (results) {
+                        results.add(token);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        assertTrue(provider.entered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        provider.unblockFetches();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+        }
+
+        assertEquals(8, results.size());
+        for (EzSecurityToken token : results) {
+            assertSame(first, token);
+        }
+        assertEquals(1, provider.fetches.get());
+    }
+
+    private static EzSecurityToken token(String id, long lifetimeMillis) {
+        EzSecurityToken token = ThriftTestUtils.generateTestSecurityToken(id, id, Arrays.asList("U"));
+        token.setValidity(new ValidityCaveats().setNotAfter(System.currentTimeMillis() + lifetimeMillis));
+        return token;
+    }
+
+    private static void awaitToken(QueuedTokenProvider provider, EzSecurityToken expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+        while (provider.get() != expected) {
+            assertTrue("Token was not refreshed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Hands out queued tokens, one per fetch, and null once the queue is empty.
+     */
+    private static class QueuedTokenProvider extends CachingTokenProvider {
+        final BlockingQueue<EzSecurityToken> tokens = new LinkedBlockingQueue<EzSecurityToken>();
+        final AtomicInteger fetches = new AtomicInteger();
+        final Semaphore fetched = new Semaphore(0);
+        final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+        QueuedTokenProvider(EzSecurityToken... tokens) {
+            this.tokens.addAll(Arrays.asList(tokens));
+        }
+
+        void blockFetches() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void unblockFetches() {
+            blocked.countDown();
+        }
+
+        @Override
+        protected EzSecurityToken fetchToken() {
+            fetches.incrementAndGet();
+            entered.countDown();
+            try {
+                blocked.await();
+                return tokens.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                fetched.release();
+            }
+        }
+    }
+}
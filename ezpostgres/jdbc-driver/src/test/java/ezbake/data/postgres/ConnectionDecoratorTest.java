@@ -0,0 +1,152 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+
+package ezbake.data.postgres;
+
+import ezbake.base.thrift.EzSecurityToken;
+import ezbake.thrift.ThriftTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Provider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the token property is set again after every way a transaction can end, since ending an aborted
+ * transaction rolls back a token property set inside it.
+ */
+public class ConnectionDecoratorTest {
+
+    private FakeConnection physical;
+    private Connection connection;
+
+    @Before
+    public void setUp() {
+        final EzSecurityToken token = ThriftTestUtils.generateTestSecurityToken("id", "id", Arrays.asList("U"));
+        physical = new FakeConnection();
+        connection = new ConnectionDecorator(physical.connection, new Provider<EzSecurityToken>() {
+            @Override
+            public EzSecurityToken get() {
+                return token;
+            }
+        });
+    }
+
+    @Test
+    public void testTokenSetOncePerSession() throws SQLException {
+        execute("select 1");
+        execute("select 2");
+
+        assertEquals(1, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testSetAutoCommitFalseKeepsToken() throws SQLException {
+        execute("select 1");
+        connection.setAutoCommit(false);
+        execute("select 2");
+
+        assertEquals(1, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testCommitResetsToken() throws SQLException {
+        connection.setAutoCommit(false);
+        execute("select 1");
+        connection.commit();
+        execute("select 2");
+
+        assertEquals(2, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testRollbackResetsToken() throws SQLException {
+        connection.setAutoCommit(false);
+        execute("select 1");
+        connection.rollback();
+        execute("select 2");
+
+        assertEquals(2, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testRollbackToSavepointResetsToken() throws SQLException {
+        connection.setAutoCommit(false);
+        Savepoint savepoint = connection.setSavepoint();
+        execute("select 1");
+        connection.rollback(savepoint);
+        execute("select 2");
+
+        assertEquals(2, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testSetAutoCommitTrueResetsToken() throws SQLException {
+        connection.setAutoCommit(false);
+        execute("select 1");
+        connection.setAutoCommit(true);
+        execute("select 2");
+
+        assertEquals(2, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testTransactionEndingSqlResetsToken() throws SQLException {
+        String[] endings = {"COMMIT", "rollback", "END", "abort", "select 1; commit"};
+        for (String ending : endings) {
+            execute("begin");
+            execute(ending);
+        }
+        execute("select 2");
+
+        assertEquals(endings.length + 1, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testBatchEndingTransactionResetsToken() throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.addBatch("begin");
+        statement.addBatch("insert into t values (1)");
+        statement.addBatch("commit");
+        statement.executeBatch();
+        execute("select 1");
+
+        assertEquals(2, physical.tokenPropertySets());
+    }
+
+    @Test
+    public void testOtherSqlKeepsToken() throws SQLException {
+        execute("begin");
+        execute("insert into commits values (1)");
+        execute("select 1");
+
+        assertEquals(1, physical.tokenPropertySets());
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*   Copyright (C) 2013-2014 Computer Sciences Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. */
+
+package ezbake.data.postgres;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for a driver's physical connection. Records the SQL run through any of its statements and tracks
+ * auto-commit, rollbacks and closing, so decorators can be tested without a database.
+ */
+class FakeConnection implements InvocationHandler {
+
+    /** SQL run through the connection's statements, in order */
+    final List<String> executed = new ArrayList<String>();
+
+    /** Statements created through the connection */
+    final List<FakeStatement> statements = new ArrayList<FakeStatement>();
+
+    final Connection connection =
+            (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, this);
+
+    boolean autoCommit = true;
+    boolean closed;
+    int commits;
+    int rollbacks;
+
+    /**
+     * @return number of statements run that set the token property
+     */
+    int tokenPropertySets() {
+        int count = 0;
+        for (String sql : executed) {
+            if (sql.startsWith("set " + TokenPropertyBinder.SECURITY_TOKEN_PROPERTY_NAME)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the last statement run that set the token property, or null if there was none
+     */
+    String lastTokenPropertySet() {
+        for (int i = executed.size() - 1; i >= 0; i--) {
+            if (executed.get(i).startsWith("set " + TokenPropertyBinder.SECURITY_TOKEN_PROPERTY_NAME)) {
+                return executed.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("createStatement")) {
+            return createStatement(Statement.class, null);
+        } else if (name.equals("prepareStatement")) {
+            return createStatement(PreparedStatement.class, (String) args[0]);
+        } else if (name.equals("prepareCall")) {
+            return createStatement(CallableStatement.class, (String) args[0]);
+        } else if (name.equals("setAutoCommit")) {
+            autoCommit = (Boolean) args[0];
+        } else if (name.equals("getAutoCommit")) {
+            return autoCommit;
+        } else if (name.equals("commit")) {
+            commits++;
+        } else if (name.equals("rollback")) {
+            rollbacks++;
+        } else if (name.equals("close")) {
+            closed = true;
+        } else if (name.equals("isClosed")) {
+            return closed;
+        } else if (name.equals("isWrapperFor")) {
+            return ((Class<?>) args[0]).isInstance(proxy);
+        } else if (name.equals("unwrap")) {
+            return ((Class<?>) args[0]).cast(proxy);
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    private Object createStatement(Class<? extends Statement> type, String sql) {
+        FakeStatement handler = new FakeStatement(sql);
+        statements.add(handler);
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isPrimitive() && type != void.class) {
+            throw new UnsupportedOperationException("No default for " + type);
+        }
+        return null;
+    }
+
+    /**
+     * Statement of a {@link FakeConnection}.
+     */
+    class FakeStatement implements InvocationHandler {
+        private final String preparedSql;
+        private final List<String> batch = new ArrayList<String>();
+        boolean closed;
+
+        FakeStatement(String preparedSql) {
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute") && !name.equals("executeBatch")) {
+                if (closed) {
+                    throw new IllegalStateException("Statement is closed");
+                }
+                executed.add(args == null || args.length == 0 ? preparedSql : (String) args[0]);
+                if (name.equals("executeUpdate")) {
+                    return 0;
+                }
+            } else if (name.equals("addBatch")) {
+                batch.add(args == null || args.length == 0 ? preparedSql : (String) args[0]);
+            } else if (name.equals("executeBatch")) {
+                executed.addAll(batch);
+                int[] counts = new int[batch.size()];
+                batch.clear();
+                return counts;
+            } else if (name.equals("close")) {
+                closed = true;
+            } else if (name.equals("isClosed")) {
+                return closed;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+}
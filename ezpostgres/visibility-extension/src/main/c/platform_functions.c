@@ -117,12 +117,29 @@ Datum verify_row_visible(PG_FUNCTION_ARGS) {
 }
 
 /*
- * Returns true if the table row is visible given the user's auths.
+ * Authorizations extracted from the last token read from the session setting,
+ * and a copy of that serialized token. The visibility filter calls
+ * verify_row_visible_current_setting once per row, so the token is only
+ * deserialized again when the setting changes.
  */
-PG_FUNCTION_INFO_V1(verify_row_visible_current_setting);
-Datum verify_row_visible_current_setting(PG_FUNCTION_ARGS) {
-    const VarChar *vis_base64 = PG_GETARG_VARCHAR_P(0);
+static char *cached_token_base64 = NULL;
+static authorizations_handle_t *cached_auths = NULL;
+
+static void clear_cached_auths(void) {
+    if (cached_auths) {
+        ezbake_authorizations_handle_free(cached_auths);
+        cached_auths = NULL;
+    }
 
+    free(cached_token_base64);
+    cached_token_base64 = NULL;
+}
+
+/*
+ * Returns the authorizations of the token in the session config. The result is
+ * owned by the cache and must not be freed.
+ */
+static authorizations_handle_t *get_current_setting_auths(void) {
     const char *token_base64 =
         GetConfigOption(EZBAKE_TOKEN_SETTING, false, false);
 
@@ -131,9 +148,16 @@ Datum verify_row_visible_current_setting(PG_FUNCTION_ARGS) {
                 (errmsg("Could not read serialized security token from session "
                         "config with key " EZBAKE_TOKEN_SETTING)));
 
-        PG_RETURN_BOOL(false);
+        return NULL;
     }
 
+    if (cached_auths && strcmp(token_base64, cached_token_base64) == 0) {
+        return cached_auths;
+    }
+
+    /* Clear first so an error below can't leave stale auths cached */
+    clear_cached_auths();
+
     char *error = NULL;
     token_handle_t *token =
         ezbake_deserialize_token_base64(token_base64, &error);
@@ -143,19 +167,44 @@ Datum verify_row_visible_current_setting(PG_FUNCTION_ARGS) {
                 (errmsg("Error deserializing the security token: %s", error)));
 
         free(error);
-        PG_RETURN_BOOL(false);
+        return NULL;
     }
 
     authorizations_handle_t *auths =
         ezbake_get_authorizations_from_token(token, &error);
 
+    ezbake_token_handle_free(token);
     if (error) {
         ereport(ERROR,
                 (errmsg("Error extracting auths from security token: %s",
                         error)));
 
-        ezbake_token_handle_free(token);
         free(error);
+        return NULL;
+    }
+
+    cached_token_base64 = strdup(token_base64);
+    if (!cached_token_base64) {
+        ezbake_authorizations_handle_free(auths);
+        ereport(ERROR, (errmsg("Out of memory caching the security token")));
+
+        return NULL;
+    }
+
+    cached_auths = auths;
+
+    return cached_auths;
+}
+
+/*
+ * Returns true if the table row is visible given the user's auths.
+ */
+PG_FUNCTION_INFO_V1(verify_row_visible_current_setting);
+Datum verify_row_visible_current_setting(PG_FUNCTION_ARGS) {
+    const VarChar *vis_base64 = PG_GETARG_VARCHAR_P(0);
+
+    authorizations_handle_t *auths = get_current_setting_auths();
+    if (!auths) {
         PG_RETURN_BOOL(false);
     }
 
@@ -164,25 +213,18 @@ Datum verify_row_visible_current_setting(PG_FUNCTION_ARGS) {
         ereport(ERROR,
                 (errmsg("There was an error deserializing the visibility!")));
 
-        ezbake_token_handle_free(token);
-        ezbake_authorizations_handle_free(auths);
         PG_RETURN_BOOL(false);
     }
 
+    char *error = NULL;
     uint32_t permissions = ezbake_get_user_permissions(auths, vis, &error);
+    ezbake_visibility_handle_free(vis);
     if (error) {
         ereport(ERROR, (errmsg("Error evaluating permissions: %s", error)));
-        ezbake_token_handle_free(token);
-        ezbake_authorizations_handle_free(auths);
-        ezbake_visibility_handle_free(vis);
         free(error);
         PG_RETURN_BOOL(false);
     }
 
-    ezbake_token_handle_free(token);
-    ezbake_authorizations_handle_free(auths);
-    ezbake_visibility_handle_free(vis);
-
     bool is_authorized =
         (permissions & EZBAKE_USER_PERM_READ) &&
         (permissions & EZBAKE_USER_PERM_WRITE) &&
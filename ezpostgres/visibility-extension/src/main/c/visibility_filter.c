@@ -20,11 +20,18 @@
 #include <string.h>
 
 #include "fmgr.h"
+#include "miscadmin.h"
+#include "catalog/namespace.h"
 #include "catalog/pg_type.h"
 #include "nodes/makefuncs.h"
 #include "optimizer/cost.h"
 #include "optimizer/planner.h"
 #include "parser/parse_func.h"
+#include "utils/hsearch.h"
+#include "utils/inval.h"
+#include "utils/lsyscache.h"
+#include "utils/memutils.h"
+#include "utils/syscache.h"
 
 #ifdef PG_MODULE_MAGIC
 PG_MODULE_MAGIC;
@@ -40,10 +47,30 @@ static void add_filter_to_plan_recursive(Plan *plan, List *rtable);
 static void add_filter_to_plan_list(List *plans, List *rtable);
 static void add_filter_to_scan(Scan *scan, List *rtable);
 static Var *find_visibility_column(RangeTblEntry *rte, Index scanrelid);
+static AttrNumber find_visibility_attnum(RangeTblEntry *rte);
+static AttrNumber lookup_relation_visibility_attnum(Oid relid);
 static FuncExpr *find_visibility_function(Var *arg);
+static Oid lookup_visibility_function(void);
+static void invalidate_visibility_column_cache(Datum arg, Oid relid);
+static void invalidate_visibility_function_cache(Datum arg, int cacheid,
+									uint32 hashvalue);
 
 static planner_hook_type prev_planner = NULL;
 
+/* Backend-local cache of each relation's visibility column, keyed by OID */
+typedef struct VisibilityColumnEntry
+{
+	Oid relid;			/* hash key - must be first */
+	AttrNumber attnum;	/* InvalidAttrNumber if there is no column */
+} VisibilityColumnEntry;
+
+static HTAB *visibility_column_cache = NULL;
+
+/* Visibility function OID and the search_path and user it was resolved with */
+static Oid visibility_function_oid = InvalidOid;
+static char *visibility_function_search_path = NULL;
+static Oid visibility_function_user = InvalidOid;
+
 static const char * const VISIBILITY_COLUMN_NAME = "visibility";
 static const char * const VISIBILITY_FUNCTION_NAME =
 		"verify_row_visible_current_setting";
@@ -53,6 +80,15 @@ _PG_init(void)
 {
 	prev_planner = planner;
 	planner_hook = visibility_filter_planner;
+
+	/* Relcache, pg_proc and pg_namespace invalidations reset the lookups
+	 * cached below */
+	CacheRegisterRelcacheCallback(invalidate_visibility_column_cache,
+			(Datum) 0);
+	CacheRegisterSyscacheCallback(PROCOID,
+			invalidate_visibility_function_cache, (Datum) 0);
+	CacheRegisterSyscacheCallback(NAMESPACEOID,
+			invalidate_visibility_function_cache, (Datum) 0);
 }
 
 void
@@ -179,50 +215,122 @@ add_filter_to_scan(Scan *scan, List *rtable)
 
 static Var *
 find_visibility_column(RangeTblEntry *rte, Index scanrelid)
+{
+	AttrNumber attnum;
+
+	attnum = find_visibility_attnum(rte);
+	if (attnum == InvalidAttrNumber)
+	{
+		return NULL;
+	}
+
+	return makeVar(scanrelid, /* varno */
+			attnum,		/* varattrno */
+			VARCHAROID, /* vartype - varchar */
+			-1,		 	/* vartypmod - this shouldn't be ignored */
+			InvalidOid, /* varcollid - not a collation */
+			0);		 	/* varlevelsup - normal var */
+}
+
+static AttrNumber
+find_visibility_attnum(RangeTblEntry *rte)
 {
 	ListCell *lc;
-	Index currInd;
-	Var *var;
+	AttrNumber currInd;
+
+	/* Plain tables are looked up by their catalog column name, which column
+	 * aliases in the query can't hide. */
+	if (rte->rtekind == RTE_RELATION)
+	{
+		return lookup_relation_visibility_attnum(rte->relid);
+	}
 
-	var = NULL;
 	currInd = 1;
 	foreach (lc, rte->eref->colnames)
 	{
 		Value *val = (Value *) lfirst(lc);
 
-		if (val->type == T_String)
+		if (val->type == T_String &&
+				strcmp(val->val.str, VISIBILITY_COLUMN_NAME) == 0)
 		{
-			if (strcmp(val->val.str, VISIBILITY_COLUMN_NAME) == 0)
-			{
-				var = makeVar(scanrelid, /* varno */
-						currInd,	/* varattrno */
-						VARCHAROID, /* vartype - varchar */
-						-1,		 	/* vartypmod - this shouldn't be ignored */
-						InvalidOid, /* varcollid - not a collation */
-						0);		 	/* varlevelsup - normal var */
-
-				break;
-			}
+			return currInd;
 		}
 
 		currInd++;
 	}
 
-	return var;
+	return InvalidAttrNumber;
+}
+
+static AttrNumber
+lookup_relation_visibility_attnum(Oid relid)
+{
+	VisibilityColumnEntry *entry;
+	AttrNumber attnum;
+
+	if (visibility_column_cache == NULL)
+	{
+		HASHCTL ctl;
+
+		MemSet(&ctl, 0, sizeof(ctl));
+		ctl.keysize = sizeof(Oid);
+		ctl.entrysize = sizeof(VisibilityColumnEntry);
+		ctl.hash = oid_hash;
+		ctl.hcxt = CacheMemoryContext;
+		visibility_column_cache = hash_create("visibility column cache", 256,
+				&ctl, HASH_ELEM | HASH_FUNCTION | HASH_CONTEXT);
+	}
+
+	entry = (VisibilityColumnEntry *) hash_search(visibility_column_cache,
+			&relid, HASH_FIND, NULL);
+	if (entry != NULL)
+	{
+		return entry->attnum;
+	}
+
+	/* Look up before entering so a failed lookup leaves no partial entry */
+	attnum = get_attnum(relid, VISIBILITY_COLUMN_NAME);
+	entry = (VisibilityColumnEntry *) hash_search(visibility_column_cache,
+			&relid, HASH_ENTER, NULL);
+	entry->attnum = attnum;
+
+	return attnum;
+}
+
+static void
+invalidate_visibility_column_cache(Datum arg, Oid relid)
+{
+	if (visibility_column_cache == NULL)
+	{
+		return;
+	}
+
+	if (relid == InvalidOid)
+	{
+		HASH_SEQ_STATUS status;
+		VisibilityColumnEntry *entry;
+
+		hash_seq_init(&status, visibility_column_cache);
+		while ((entry = (VisibilityColumnEntry *) hash_seq_search(&status))
+				!= NULL)
+		{
+			hash_search(visibility_column_cache, &entry->relid, HASH_REMOVE,
+					NULL);
+		}
+	}
+	else
+	{
+		hash_search(visibility_column_cache, &relid, HASH_REMOVE, NULL);
+	}
 }
 
 static FuncExpr *
 find_visibility_function(Var *arg)
 {
-	List *funcname;
-	Oid varcharOid = VARCHAROID;
 	Oid funcoid;
 	FuncExpr *expr;
 
-	/* We know exactly what this function should look like */
-	funcname = list_make1(makeString(pstrdup(VISIBILITY_FUNCTION_NAME)));
-	funcoid = LookupFuncName(funcname, 1, &varcharOid, false);
-	list_free(funcname);
+	funcoid = lookup_visibility_function();
 
 	expr = NULL;
 	if (funcoid == InvalidOid)
@@ -238,3 +346,50 @@ find_visibility_function(Var *arg)
 
 	return expr;
 }
+
+static Oid
+lookup_visibility_function(void)
+{
+	List *funcname;
+	Oid varcharOid = VARCHAROID;
+	Oid funcoid;
+
+	/* The function is resolved through search_path, so a cached OID is only
+	 * good for the search_path it was found with. "$user" in the path
+	 * resolves per role, so SET ROLE can change the result without changing
+	 * the string. */
+	if (visibility_function_oid != InvalidOid &&
+			visibility_function_user == GetUserId() &&
+			visibility_function_search_path != NULL &&
+			strcmp(visibility_function_search_path,
+				namespace_search_path) == 0)
+	{
+		return visibility_function_oid;
+	}
+
+	/* We know exactly what this function should look like */
+	funcname = list_make1(makeString(pstrdup(VISIBILITY_FUNCTION_NAME)));
+	funcoid = LookupFuncName(funcname, 1, &varcharOid, false);
+	list_free(funcname);
+
+	if (funcoid != InvalidOid)
+	{
+		if (visibility_function_search_path != NULL)
+		{
+			pfree(visibility_function_search_path);
+		}
+		visibility_function_search_path =
+				MemoryContextStrdup(TopMemoryContext, namespace_search_path);
+		visibility_function_user = GetUserId();
+		visibility_function_oid = funcoid;
+	}
+
+	return funcoid;
+}
+
+static void
+invalidate_visibility_function_cache(Datum arg, int cacheid,
+		uint32 hashvalue)
+{
+	visibility_function_oid = InvalidOid;
+}